@@ -0,0 +1,66 @@
+/**
+ * Petit harnais de mesure dans l'esprit de JMH (mode « temps moyen ») :
+ * préchauffage, puis plusieurs itérations chronométrées ; le score est le
+ * temps moyen par opération, avec son écart-type entre itérations.
+ * <p>Chaque opération renvoie une valeur qui est versée dans un puits
+ * volatile, pour que le JIT ne puisse pas supprimer le calcul.
+ */
+public class banc {
+
+    /** Une opération mesurée ; la valeur renvoyée est consommée. */
+    public interface operation {
+        long executer();
+    }
+
+    private static final long PRECHAUFFAGE_NS = 500000000L;
+
+    private static final int ITERATIONS = 5;
+
+    private static final long ITERATION_NS = 200000000L;
+
+    public static volatile long puits;
+
+    public static void entete() {
+        System.out.printf("%-40s %9s %5s %12s %10s  %s%n",
+                "Banc", "(taille)", "Cnt", "Score", "Erreur", "Unités");
+    }
+
+    /**
+     * Mesure op et affiche une ligne de résultat.
+     * @param nom nom du banc
+     * @param taille paramètre de taille du plateau
+     */
+    public static void mesurer(String nom, int taille, operation op) {
+        executerPendant(op, PRECHAUFFAGE_NS);
+        double[] scores = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            scores[i] = executerPendant(op, ITERATION_NS);
+        }
+        double moyenne = 0;
+        for (double s : scores) moyenne += s;
+        moyenne /= ITERATIONS;
+        double variance = 0;
+        for (double s : scores) variance += (s - moyenne) * (s - moyenne);
+        double ecart = Math.sqrt(variance / (ITERATIONS - 1));
+        System.out.printf("%-40s %9d %5d %12.3f ± %8.3f  ns/op%n",
+                nom, taille, ITERATIONS, moyenne, ecart);
+    }
+
+    /** @return le temps moyen d'une opération, en nanosecondes */
+    private static double executerPendant(operation op, long duree) {
+        long somme = 0;
+        long operations = 0;
+        long debut = System.nanoTime();
+        long fin = debut + duree;
+        long maintenant;
+        int lot = 1;
+        do {
+            for (int i = 0; i < lot; i++) somme += op.executer();
+            operations += lot;
+            if (lot < 1 << 16) lot <<= 1;
+            maintenant = System.nanoTime();
+        } while (maintenant < fin);
+        puits += somme;
+        return (double) (maintenant - debut) / operations;
+    }
+}
@@ -0,0 +1,285 @@
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Bancs d'essai des chemins chauds : construction du plateau, résolution
+ * des tirs (par joueur et par jeu), segmentBateau.toucher, placement de
+ * la flotte, choix de cible de l'ordinateur, dessin du plateau et
+ * incrustation d'images.
+ * <p>Lancés avec -Dbataille.mesures=true, ils donnent le surcoût des
+ * mesures (voir mesures).
+ * <p>Usage : bancs [tailles [filtre]], par exemple
+ * <code>bancs 10,100,1000 tir</code> ; les tailles sont les côtés des
+ * plateaux mesurés, le filtre une expression régulière sur le nom du banc.
+ */
+public class bancs {
+
+    private static final int[] FLOTTE = placementFlotte.FLOTTE_STANDARD;
+
+    public static void main(String[] args) {
+        String[] champs = (args.length > 0 ? args[0] : "10,100,1000").split(",");
+        Pattern filtre = Pattern.compile(args.length > 1 ? args[1] : ".*");
+        banc.entete();
+        for (String champ : champs) {
+            int taille = Integer.parseInt(champ.trim());
+            lancer(filtre, taille);
+        }
+    }
+
+    private static void lancer(Pattern filtre, final int taille) {
+        if (retenu(filtre, "plateau.new")) {
+            banc.mesurer("plateau.new", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    return new plateau(taille, taille).getGrille().getLargeur();
+                }
+            });
+        }
+        if (retenu(filtre, "grille.new")) {
+            banc.mesurer("grille.new", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    return new grille(taille, taille).getLargeur();
+                }
+            });
+        }
+        if (retenu(filtre, "joueur.tirerSur")) {
+            final partie p = new partie(taille, 0, false);
+            banc.mesurer("joueur.tirerSur", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    return p.tirSequentiel();
+                }
+            });
+        }
+        if (retenu(filtre, "joueurPlateau.essuyerTir")) {
+            final partie p = new partie(taille, 0, true);
+            banc.mesurer("joueurPlateau.essuyerTir", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    return p.tirAvecVue();
+                }
+            });
+        }
+        if (retenu(filtre, "jeu.jouer")) {
+            final partie p = new partie(taille, 0, false);
+            banc.mesurer("jeu.jouer", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    return p.tirJeu();
+                }
+            });
+        }
+        if (retenu(filtre, "segmentBateau.toucher")) {
+            final segmentBateau segment = new segmentBateau(null, null);
+            final bateau porteur = new bateau(Integer.MAX_VALUE, true);
+            segment.setBateau(porteur);
+            banc.mesurer("segmentBateau.toucher", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    segment.touche = false;
+                    segment.toucher();
+                    return porteur.caseRestantes();
+                }
+            });
+        }
+        if (retenu(filtre, "placementFlotte.generer")) {
+            final placementFlotte generateur =
+                    new placementFlotte(taille, taille, FLOTTE);
+            final SplittableRandom rand = new SplittableRandom(42);
+            final int[] sortie = new int[3 * FLOTTE.length];
+            banc.mesurer("placementFlotte.generer", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    generateur.generer(rand, sortie);
+                    return sortie[0];
+                }
+            });
+        }
+        for (int niveau = 1; niveau <= 3; niveau++) {
+            String nom = "ordinateur.choisirCible.niveau" + niveau;
+            if (!retenu(filtre, nom)) continue;
+            final partie p = new partie(taille, niveau, false);
+            banc.mesurer(nom, taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    return p.tirOrdinateur();
+                }
+            });
+        }
+        if (retenu(filtre, "IHMImage.incrusteImage")) {
+            final int tuile = 16;
+            final int cote = Math.min(taille, 32) * tuile;
+            final IHMImage fond = new IHMImage(cote, cote,
+                    BufferedImage.TYPE_INT_RGB);
+            final IHMImage motif = new IHMImage(tuile, tuile,
+                    BufferedImage.TYPE_INT_RGB);
+            for (int j = 0; j < tuile; j++) {
+                for (int i = 0; i < tuile; i++) {
+                    motif.putPixel(i, j, 16 * i, 16 * j, 128);
+                }
+            }
+            final int parLigne = cote / tuile;
+            banc.mesurer("IHMImage.incrusteImage", taille, new banc.operation() {
+                int n;
+                @Override
+                public long executer() {
+                    int k = n++ % (parLigne * parLigne);
+                    fond.incrusteImage(motif, (k % parLigne) * tuile,
+                                       (k / parLigne) * tuile);
+                    return k;
+                }
+            });
+        }
+        if (retenu(filtre, "IHMImage.blit")) {
+            // Une image telle que la rend ImageIO pour un PNG ou un JPEG
+            // (TYPE_3BYTE_BGR), puis sa copie au format de la destination.
+            final BufferedImage ecran = new BufferedImage(800, 600,
+                    BufferedImage.TYPE_INT_RGB);
+            final Graphics2D g = ecran.createGraphics();
+            IHMImage lue = new IHMImage(800, 600, BufferedImage.TYPE_3BYTE_BGR);
+            for (int j = 0; j < 600; j++) {
+                for (int i = 0; i < 800; i++) lue.putPixel(i, j, i & 0xFF, j & 0xFF, 128);
+            }
+            final BufferedImage brute = lue.getImage();
+            final BufferedImage convertie =
+                    lue.compatible(g.getDeviceConfiguration()).getImage();
+            banc.mesurer("IHMImage.blit.brut", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    g.drawImage(brute, 0, 0, null);
+                    return ecran.getRGB(0, 0);
+                }
+            });
+            banc.mesurer("IHMImage.blit.compatible", taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    g.drawImage(convertie, 0, 0, null);
+                    return ecran.getRGB(0, 0);
+                }
+            });
+        }
+        for (final String nom : new String[] {"plateau.dessiner",
+                "plateau.dessiner.entier", "plateau.dessiner.direct",
+                "plateau.reafficher"}) {
+            // Une image de 800x600 du plateau, tuiles à leur taille ou
+            // plateau entier visible ; redessinée entière depuis la grille
+            // (dans le tampon, ou directement), ou seulement recopiée du
+            // tampon quand rien n'a changé.
+            if (!retenu(filtre, nom)) continue;
+            final boolean loin = nom.endsWith(".entier");
+            final boolean direct = nom.endsWith(".direct");
+            final boolean inchange = nom.endsWith(".reafficher");
+            final plateau carte = new plateau(taille, taille);
+            new placementFlotte(taille, taille, FLOTTE).placer(carte.getGrille(),
+                    new SplittableRandom(7), new int[3 * FLOTTE.length]);
+            for (int i = 0; i < taille; i += 3) carte.getGrille().tirer(i, i);
+            carte.setSize(800, 600);
+            if (loin) carte.setZoom(Integer.MAX_VALUE, 0, 0);
+            carte.setAccelere(!direct);
+            final BufferedImage ecran = new BufferedImage(800, 600,
+                    BufferedImage.TYPE_INT_RGB);
+            final Graphics2D g = ecran.createGraphics();
+            banc.mesurer(nom, taille, new banc.operation() {
+                @Override
+                public long executer() {
+                    if (!inchange) carte.redessiner();
+                    carte.paintComponent(g);
+                    return carte.getPixelsDessines();
+                }
+            });
+        }
+    }
+
+    private static boolean retenu(Pattern filtre, String nom) {
+        return filtre.matcher(nom).find();
+    }
+
+    /**
+     * Partie en cours d'un banc ; elle est recommencée sur un plateau neuf
+     * quand toutes les cases ont été visées ou la flotte coulée.
+     */
+    private static class partie {
+
+        private final int taille;
+
+        private final int niveau;
+
+        private final boolean avecPlateau;
+
+        private final placementFlotte generateur;
+
+        private final SplittableRandom rand = new SplittableRandom(7);
+
+        private final int[] disposition = new int[3 * FLOTTE.length];
+
+        private joueur cible;
+
+        private joueur tireur;
+
+        private int prochaine;
+
+        /** Partie complète de tirJeu, entre deux joueurs qui tirent à tour de rôle. */
+        private jeu duel;
+
+        partie(int taille, int niveau, boolean avecPlateau) {
+            this.taille = taille;
+            this.niveau = niveau;
+            this.avecPlateau = avecPlateau;
+            generateur = new placementFlotte(taille, taille, FLOTTE);
+            recommencer();
+        }
+
+        private void recommencer() {
+            if (avecPlateau) {
+                plateau carte = new plateau(taille, taille);
+                generateur.placer(carte.getGrille(), rand, disposition);
+                cible = new joueurPlateau(carte);
+            } else {
+                grille carte = new grille(taille, taille);
+                generateur.placer(carte, rand, disposition);
+                cible = new joueur(carte);
+            }
+            tireur = (niveau > 0) ? new ordinateur(niveau, null) : new joueur();
+            prochaine = 0;
+        }
+
+        long tirSequentiel() {
+            if (prochaine == taille * taille) recommencer();
+            int i = prochaine++;
+            return tireur.tirerSur(i % taille, i / taille, cible);
+        }
+
+        long tirJeu() {
+            if (duel == null || !duel.enCours() || prochaine == 2 * taille * taille) {
+                grille g1 = new grille(taille, taille);
+                grille g2 = new grille(taille, taille);
+                generateur.placer(g1, rand, disposition);
+                generateur.placer(g2, rand, disposition);
+                duel = new jeu(new joueur(g1), new joueur(g2));
+                prochaine = 0;
+            }
+            int i = prochaine++ >> 1;
+            return duel.jouer(i % taille, i / taille);
+        }
+
+        long tirAvecVue() {
+            if (prochaine == taille * taille) recommencer();
+            int i = prochaine++;
+            return ((joueurPlateau) cible).essuyerTir(i % taille, i / taille).estTouche() ? 1 : 0;
+        }
+
+        long tirOrdinateur() {
+            if (cible.getGrille().casesRestantes() == 0) recommencer();
+            int i = tireur.choisirCible(cible);
+            int x = i % taille;
+            int y = i / taille;
+            int resultat = tireur.tirerSur(x, y, cible);
+            tireur.noterResultat(x, y, resultat);
+            return resultat;
+        }
+    }
+}
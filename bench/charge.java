@@ -0,0 +1,392 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Générateur de charge : des joueurs synthétiques jouent sans pause contre
+ * des ordinateurs, avec un nombre de parties simultanées qui double à
+ * chaque palier.
+ * <p>En mode <code>local</code>, les parties tournent dans ce processus
+ * sur un ordonnanceur et un pool d'un thread par processeur ; en mode
+ * <code>reseau</code>, chaque joueur est un clientDistant (un thread
+ * bloquant) relié en boucle locale à un serveur lancé dans ce processus.
+ * <p>Un tour va du tir du joueur à la réponse de l'ordinateur. Chaque
+ * palier donne les tirs et parties par seconde, les quantiles de latence
+ * des tours et les octets alloués par tir (tous threads confondus, mesurés
+ * par la JVM) avec le temps passé en GC.
+ * <p>Usage : charge [mode [parties_max [niveau [duree_s [p99_max_ms [regles]]]]]],
+ * par exemple <code>charge local 4096 2 2 50</code> ; la montée s'arrête
+ * au premier palier dont le p99 dépasse p99_max_ms (0 pour aller au bout).
+ */
+public class charge {
+
+    private final boolean reseau;
+
+    private final int niveau;
+
+    private final regles regle;
+
+    private final histogramme latences = new histogramme("tours");
+
+    private final LongAdder tirs = new LongAdder();
+
+    private final LongAdder parties = new LongAdder();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /** Graine de la prochaine partie, pour des parties toutes différentes. */
+    private long prochaine;
+
+    private volatile boolean arret;
+
+    private ExecutorService pool;
+
+    private ordonnanceur ordo;
+
+    private serveur serveurLocal;
+
+    private Thread boucle;
+
+    private InetSocketAddress adresse;
+
+    charge(boolean reseau, int niveau, regles regle) {
+        this.reseau = reseau;
+        this.niveau = niveau;
+        this.regle = regle;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean reseau = args.length > 0 && args[0].equals("reseau");
+        int max = args.length > 1 ? Integer.parseInt(args[1]) : (reseau ? 256 : 4096);
+        int niveau = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        double duree = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+        double seuil = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        regles regle = args.length > 5 ? regles.lire(args[5]) : regles.STANDARD;
+        if (niveau < 1) {
+            throw new IllegalArgumentException("niveau des ordinateurs : 1 à 4");
+        }
+        charge c = new charge(reseau, niveau, regle);
+        System.out.printf(Locale.ROOT, "mode %s, ordinateurs de niveau %d, %s, %.1f s par palier, %d processeurs%n",
+                reseau ? "reseau" : "local", niveau, regle, duree,
+                Runtime.getRuntime().availableProcessors());
+        c.demarrer();
+        try {
+            // Préchauffage du JIT, non rapporté.
+            c.palier(Math.min(max, 64), (long) (1e9 * Math.min(duree, 1)));
+            System.out.printf("%9s %11s %10s %10s %10s %10s %11s %8s%n",
+                    "parties", "tirs/s", "parties/s", "p50 µs", "p99 µs",
+                    "p999 µs", "octets/tir", "GC ms");
+            for (int n = 1; ; n = Math.min(2 * n, max)) {
+                resultat r = c.palier(n, (long) (1e9 * duree));
+                System.out.println(r);
+                if (seuil > 0 && r.p99 > seuil * 1e6) {
+                    System.out.printf(Locale.ROOT, "p99 au-delà de %.1f ms : arrêt à %d parties%n",
+                            seuil, n);
+                    break;
+                }
+                if (n == max) break;
+            }
+        } finally {
+            c.arreter();
+        }
+    }
+
+    /** Lance le pool (local) ou le serveur (reseau). */
+    void demarrer() throws IOException {
+        if (!reseau) {
+            final int n = Runtime.getRuntime().availableProcessors();
+            pool = Executors.newFixedThreadPool(n, demons("charge"));
+            ordo = new ordonnanceur(pool);
+            return;
+        }
+        serveurLocal = new serveur(0, regle);
+        boucle = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serveurLocal.lancer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "serveur");
+        boucle.setDaemon(true);
+        boucle.start();
+        adresse = new InetSocketAddress("127.0.0.1", serveurLocal.getPort());
+    }
+
+    void arreter() throws InterruptedException {
+        if (pool != null) pool.shutdownNow();
+        if (serveurLocal != null) {
+            serveurLocal.arreter();
+            boucle.join();
+        }
+    }
+
+    private static ThreadFactory demons(final String nom) {
+        return new ThreadFactory() {
+            private int n;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, nom + "-" + n++);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private synchronized long graine() {
+        return prochaine++;
+    }
+
+    /** Mesures d'un palier. */
+    static final class resultat {
+        int parties;
+        double tirsParSeconde;
+        double partiesParSeconde;
+        long p50;
+        long p99;
+        long p999;
+        /** Octets alloués par tir, -1 si la JVM ne les mesure pas. */
+        double octetsParTir;
+        long gcMillis;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%9d %11.0f %10.1f %10.1f %10.1f %10.1f %11.0f %8d",
+                    parties, tirsParSeconde, partiesParSeconde, p50 / 1e3,
+                    p99 / 1e3, p999 / 1e3, octetsParTir, gcMillis);
+        }
+    }
+
+    /**
+     * Fait jouer n parties simultanées pendant duree nanosecondes ; une
+     * partie finie est aussitôt remplacée par une nouvelle.
+     */
+    resultat palier(int n, long duree) throws Exception {
+        arret = false;
+        CountDownLatch fini = new CountDownLatch(n);
+        Thread[] clients = null;
+        latences.reinitialiser();
+        tirs.reset();
+        parties.reset();
+        long octets0 = octetsAlloues();
+        long gc0 = tempsGc();
+        long t0 = System.nanoTime();
+        if (reseau) {
+            clients = new Thread[n];
+            for (int k = 0; k < n; k++) {
+                clients[k] = new Thread(new joueurDistant(fini, graine()), "client-" + k);
+                clients[k].setDaemon(true);
+                clients[k].start();
+            }
+        } else {
+            for (int k = 0; k < n; k++) new partieLocale(fini).tirer();
+        }
+        Thread.sleep(duree / 1000000, (int) (duree % 1000000));
+        // Les tirs, parties et octets sont relevés avant l'arrêt, qui
+        // attend la fin des tours en cours.
+        long t1 = System.nanoTime();
+        long nbTirs = tirs.sum();
+        long nbParties = parties.sum();
+        long octets1 = octetsAlloues();
+        long gc1 = tempsGc();
+        arret = true;
+        if (!fini.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("des parties ne se sont pas arrêtées");
+        }
+        if (clients != null) {
+            for (Thread t : clients) t.join();
+        }
+        double secondes = (t1 - t0) / 1e9;
+        resultat r = new resultat();
+        r.parties = n;
+        r.tirsParSeconde = nbTirs / secondes;
+        r.partiesParSeconde = nbParties / secondes;
+        r.p50 = latences.quantile(0.5);
+        r.p99 = latences.quantile(0.99);
+        r.p999 = latences.quantile(0.999);
+        r.octetsParTir = (octets0 < 0 || nbTirs == 0) ? -1
+                       : (double) (octets1 - octets0) / nbTirs;
+        r.gcMillis = gc1 - gc0;
+        return r;
+    }
+
+    /**
+     * Octets alloués depuis leur démarrage par les threads vivants ; les
+     * threads du pool et du serveur vivent tout le long de la charge.
+     * @return -1 si la JVM ne sait pas compter les allocations par thread
+     */
+    private long octetsAlloues() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+        if (!t.isThreadAllocatedMemorySupported()) return -1;
+        if (!t.isThreadAllocatedMemoryEnabled()) t.setThreadAllocatedMemoryEnabled(true);
+        long somme = 0;
+        for (long octets : t.getThreadAllocatedBytes(t.getAllThreadIds())) {
+            if (octets > 0) somme += octets;
+        }
+        return somme;
+    }
+
+    private static long tempsGc() {
+        long somme = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            somme += Math.max(0, gc.getCollectionTime());
+        }
+        return somme;
+    }
+
+    /** Joueur synthétique : une case encore libre de la grille adverse, au hasard. */
+    private static int cible(grille adverse, SplittableRandom hasard) {
+        int n = adverse.getLargeur() * adverse.getHauteur();
+        int i = hasard.nextInt(n);
+        int j = adverse.suivanteLibre(i, n);
+        if (j < 0) j = adverse.suivanteLibre(0, i);
+        return j;
+    }
+
+    /**
+     * Partie en cours dans ce processus : le joueur dépose son tir puis la
+     * réponse de l'ordinateur sur la file de la partie, et rejoue dès que
+     * la réponse est jouée.
+     */
+    private final class partieLocale implements BiConsumer<Integer, Throwable> {
+
+        private final CountDownLatch fini;
+
+        private final placementFlotte generateur = regle.nouveauPlacement();
+
+        private final int[] disposition = new int[3 * generateur.nombreBateaux()];
+
+        private jeu partie;
+
+        private ordonnanceur.file file;
+
+        private SplittableRandom hasard;
+
+        private int tours;
+
+        private long depot;
+
+        partieLocale(CountDownLatch fini) {
+            this.fini = fini;
+            nouvelle();
+        }
+
+        private void nouvelle() {
+            hasard = new SplittableRandom(graine());
+            grille g1 = regle.nouvelleGrille();
+            grille g2 = regle.nouvelleGrille();
+            if (!generateur.placer(g1, hasard, disposition)
+                    || !generateur.placer(g2, hasard, disposition)) {
+                throw new IllegalStateException("flotte impossible à placer : " + regle);
+            }
+            partie = new jeu(new joueur(g1), new ordinateur(niveau, g2, hasard.split()));
+            file = ordo.inscrire(partie);
+            tours = 0;
+        }
+
+        void tirer() {
+            grille adverse = partie.getJoueur2().getGrille();
+            int i = cible(adverse, hasard);
+            depot = System.nanoTime();
+            file.tirer(partie.getJoueur1(), i % adverse.getLargeur(),
+                       i / adverse.getLargeur());
+            file.nouveauTour().whenComplete(this);
+        }
+
+        @Override
+        public void accept(Integer joues, Throwable erreur) {
+            latences.noter(System.nanoTime() - depot);
+            if (erreur != null) {
+                erreur.printStackTrace();
+                fini.countDown();
+                return;
+            }
+            tirs.add(joues - tours);
+            tours = joues;
+            if (!partie.enCours()) {
+                parties.increment();
+                nouvelle();
+            }
+            if (arret) {
+                fini.countDown();
+            } else {
+                tirer();
+            }
+        }
+    }
+
+    /**
+     * Joueur relié au serveur : il rejoint une partie contre un ordinateur
+     * du serveur, tire, attend la réponse de l'ordinateur et recommence.
+     */
+    private final class joueurDistant implements Runnable {
+
+        private final CountDownLatch fini;
+
+        private final SplittableRandom hasard;
+
+        joueurDistant(CountDownLatch fini, long graine) {
+            this.fini = fini;
+            this.hasard = new SplittableRandom(graine);
+        }
+
+        @Override
+        public void run() {
+            try (clientDistant c = new clientDistant(adresse)) {
+                while (!arret) {
+                    c.rejoindre(0, niveau);
+                    jouer(c);
+                }
+            } catch (IOException e) {
+                if (!arret) e.printStackTrace();
+            } finally {
+                fini.countDown();
+            }
+        }
+
+        /** Joue une partie jusqu'au bout, ou jusqu'à l'arrêt du palier. */
+        private void jouer(clientDistant c) throws IOException {
+            grille adverse = c.getAdverse();
+            while (true) {
+                int i = cible(adverse, hasard);
+                long depot = System.nanoTime();
+                c.tirer(i % adverse.getLargeur(), i / adverse.getLargeur());
+                // Notre résultat, puis la réponse de l'ordinateur.
+                int recus = 0;
+                while (true) {
+                    byte type = c.lire();
+                    if (type == protocole.ERREUR) {
+                        throw new IOException("partie interrompue, erreur " + c.getErreur());
+                    }
+                    recus++;
+                    if (c.getSuite() != protocole.EN_COURS || c.getTireur() != c.getNumero()) break;
+                }
+                latences.noter(System.nanoTime() - depot);
+                tirs.add(recus);
+                if (c.getSuite() != protocole.EN_COURS) {
+                    parties.increment();
+                    return;
+                }
+                if (arret) {
+                    c.quitter();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Temps de démarrage à froid : chaque mesure lance une JVM neuve sur une
+ * commande courte de console et chronomètre le processus entier.
+ * <p>Deux modes : partie (modèle seul, sans AWT) et apercu (plateau et
+ * atlas dessinés en mode headless, donc Java2D chargé). Pour chacun on
+ * compte aussi les classes AWT/Swing chargées (-verbose:class). Si le
+ * dossier d'archives contient console.jar et &lt;mode&gt;.jsa (voir la
+ * cible Ant cds), on mesure de nouveau depuis le jar, sans puis avec
+ * cette archive AppCDS.
+ * <p>Usage : demarrage classes [lancements [dossier_archives]]
+ */
+public class demarrage {
+
+    private static final String[][] MODES = {
+        {"partie", "partie", "10x10:5,4,3,3,2", "2", "2", "1"},
+        {"apercu", "apercu", null, "10x10:5,4,3,3,2", "2", "2", "1"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        String classes = args[0];
+        int lancements = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        File archives = args.length > 2 ? new File(args[2]) : null;
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        File image = File.createTempFile("apercu", ".png");
+        image.deleteOnExit();
+        System.out.printf("%-8s %-8s %10s %10s %8s %8s%n", "mode", "depuis",
+                "médiane", "min", "classes", "AWT");
+        for (String[] mode : MODES) {
+            List<String> commande = new ArrayList<String>();
+            for (int i = 1; i < mode.length; i++) {
+                commande.add(mode[i] == null ? image.getPath() : mode[i]);
+            }
+            mesurer(java, classes, mode[0], "-", null, commande, lancements);
+            if (archives == null) continue;
+            File jar = new File(archives, "console.jar");
+            File jsa = new File(archives, mode[0] + ".jsa");
+            if (jar.isFile() && jsa.isFile()) {
+                mesurer(java, jar.getPath(), mode[0], "jar", null, commande, lancements);
+                mesurer(java, jar.getPath(), mode[0], "AppCDS", jsa, commande, lancements);
+            }
+        }
+    }
+
+    private static void mesurer(String java, String classes, String nom,
+                                String variante, File jsa,
+                                List<String> commande, int lancements)
+            throws IOException, InterruptedException {
+        List<String> base = new ArrayList<String>();
+        base.add(java);
+        if (jsa != null) base.add("-XX:SharedArchiveFile=" + jsa.getPath());
+        base.add("-cp");
+        base.add(classes);
+        // Classes chargées, comptées sur un lancement à part.
+        List<String> bavard = new ArrayList<String>(base);
+        bavard.add(1, "-verbose:class");
+        bavard.add("console");
+        bavard.addAll(commande);
+        String[] lignes = executer(bavard).split("\n");
+        int chargees = 0;
+        int awt = 0;
+        for (String ligne : lignes) {
+            if (!ligne.startsWith("[")) continue;
+            chargees++;
+            if (ligne.contains(" java.awt.") || ligne.contains(" javax.swing.")
+                    || ligne.contains(" sun.awt.") || ligne.contains(" sun.java2d.")) {
+                awt++;
+            }
+        }
+        List<String> ligneCommande = new ArrayList<String>(base);
+        ligneCommande.add("console");
+        ligneCommande.addAll(commande);
+        executer(ligneCommande);
+        double[] durees = new double[lancements];
+        for (int i = 0; i < lancements; i++) {
+            long t0 = System.nanoTime();
+            executer(ligneCommande);
+            durees[i] = (System.nanoTime() - t0) / 1e6;
+        }
+        Arrays.sort(durees);
+        System.out.printf("%-8s %-8s %7.1f ms %7.1f ms %8d %8d%n", nom,
+                variante, durees[lancements / 2], durees[0],
+                chargees, awt);
+    }
+
+    /** Lance la commande, attend sa fin et renvoie sa sortie. */
+    private static String executer(List<String> commande)
+            throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(commande).redirectErrorStream(true).start();
+        StringBuilder sortie = new StringBuilder();
+        byte[] tampon = new byte[8192];
+        InputStream in = p.getInputStream();
+        for (int n = in.read(tampon); n >= 0; n = in.read(tampon)) {
+            sortie.append(new String(tampon, 0, n, "UTF-8"));
+        }
+        if (p.waitFor() != 0) {
+            throw new IOException("échec de " + commande + " :\n" + sortie);
+        }
+        return sortie.toString();
+    }
+}
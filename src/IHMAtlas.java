@@ -0,0 +1,218 @@
+/******************************************************************************
+ *                              CLASSE IHMAtlas
+ *     Planche de tuiles partagée par toutes les cases du plateau :
+ *      - la planche est lue une seule fois (ou dessinée si aucun fichier)
+ *      - chaque tuile est découpée une fois par rogne puis mise en cache
+ *      - une case ne retient que son type, l'image vient de l'atlas
+ *      - chaque tuile est réduite de moitié en moitié jusqu'à un pixel
+ *        (niveaux de mipmap) pour dessiner les plateaux vus de loin
+ *
+ * Disposition de la planche : une ligne de tuiles par type de case
+ * (EAU, BATEAU...), une colonne par état (NORMAL, TOUCHE).
+ ******************************************************************************/
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/******************************************************************************/
+
+public class IHMAtlas {
+
+    /** Types de case, numéros de ligne dans la planche. */
+    public static final int EAU = 0;
+    public static final int BATEAU = 1;
+
+    /** Etats d'une case, numéros de colonne dans la planche. */
+    public static final int NORMAL = 0;
+    public static final int TOUCHE = 1;
+
+    public static final int ETATS = 2;
+
+    /** Côté des tuiles de l'atlas dessiné par défaut, en pixels. */
+    public static final int TAILLE_DEFAUT = 16;
+
+    private static IHMAtlas courant;
+
+    private final IHMImage planche;
+
+    private final int tailleTuile;
+
+    private final int types;
+
+    private final IHMImage[] tuiles;
+
+    /** Côté des tuiles de chaque niveau, de tailleTuile à 1. */
+    private final int[] cotes;
+
+    /** Pixels rvb de chaque tuile, par niveau puis par tuile. */
+    private final int[][][] niveaux;
+
+    /**
+     * Découpe la planche en tuiles carrées de côté tailleTuile.
+     * @param planche image contenant au moins une ligne de ETATS tuiles
+     * @param tailleTuile côté d'une tuile en pixels
+     */
+    public IHMAtlas(IHMImage planche, int tailleTuile) {
+        if (planche.largeur() < ETATS * tailleTuile
+                || planche.hauteur() < tailleTuile) {
+            throw new IllegalArgumentException("planche trop petite pour des "
+                    + "tuiles de " + tailleTuile + " pixels");
+        }
+        this.planche = planche;
+        this.tailleTuile = tailleTuile;
+        this.types = planche.hauteur() / tailleTuile;
+        this.tuiles = new IHMImage[types * ETATS];
+        for (int type = 0; type < types; type++) {
+            for (int etat = 0; etat < ETATS; etat++) {
+                tuiles[type * ETATS + etat] = planche.rogne(
+                        etat * tailleTuile, type * tailleTuile,
+                        tailleTuile, tailleTuile);
+            }
+        }
+        int n = 1;
+        for (int c = tailleTuile; c > 1; c /= 2) n++;
+        cotes = new int[n];
+        niveaux = new int[n][tuiles.length][];
+        cotes[0] = tailleTuile;
+        for (int t = 0; t < tuiles.length; t++) {
+            niveaux[0][t] = tuiles[t].lireRect(0, 0, tailleTuile, tailleTuile,
+                    new int[tailleTuile * tailleTuile], 0, tailleTuile);
+        }
+        for (int k = 1; k < n; k++) {
+            cotes[k] = Math.max(1, cotes[k - 1] / 2);
+            for (int t = 0; t < tuiles.length; t++) {
+                niveaux[k][t] = reduire(niveaux[k - 1][t], cotes[k - 1], cotes[k]);
+            }
+        }
+    }
+
+    /**
+     * Réduit une tuile carrée : chaque pixel du résultat est la moyenne
+     * du bloc de pixels source qu'il recouvre.
+     */
+    private static int[] reduire(int[] src, int cote, int nouveau) {
+        int[] dest = new int[nouveau * nouveau];
+        for (int j = 0; j < nouveau; j++) {
+            int y0 = j * cote / nouveau;
+            int y1 = (j + 1) * cote / nouveau;
+            for (int i = 0; i < nouveau; i++) {
+                int x0 = i * cote / nouveau;
+                int x1 = (i + 1) * cote / nouveau;
+                int a = 0, r = 0, v = 0, b = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        int p = src[y * cote + x];
+                        a += p >>> 24;
+                        r += (p >> 16) & 0xFF;
+                        v += (p >> 8) & 0xFF;
+                        b += p & 0xFF;
+                    }
+                }
+                int nb = (y1 - y0) * (x1 - x0);
+                dest[j * nouveau + i] = (a / nb) << 24 | (r / nb) << 16
+                                      | (v / nb) << 8 | (b / nb);
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * Lit une planche sur le disque, sans boite de dialogue. La planche
+     * passe par le cache du chargeur commun : recharger un thème déjà lu
+     * ne relit pas le fichier.
+     * @param chemin chemin du fichier image
+     * @param tailleTuile côté d'une tuile en pixels
+     * @throws IOException si le fichier ne peut être lu
+     */
+    public static IHMAtlas charger(String chemin, int tailleTuile)
+            throws IOException {
+        return new IHMAtlas(IHMChargeur.getCommun().lire(chemin), tailleTuile);
+    }
+
+    /**
+     * Dessine une planche simple (eau bleue, bateau gris, touches marquées
+     * d'une croix rouge), pour jouer sans fichier de thème.
+     */
+    public static IHMAtlas dessiner(int tailleTuile) {
+        IHMImage planche = new IHMImage(ETATS * tailleTuile, 2 * tailleTuile,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = planche.getImage().createGraphics();
+        Color[] fonds = {new Color(0x1E5AA0), new Color(0x808080)};
+        for (int type = 0; type < 2; type++) {
+            for (int etat = 0; etat < ETATS; etat++) {
+                int x = etat * tailleTuile;
+                int y = type * tailleTuile;
+                g.setColor(fonds[type]);
+                g.fillRect(x, y, tailleTuile, tailleTuile);
+                g.setColor(fonds[type].darker());
+                g.drawRect(x, y, tailleTuile - 1, tailleTuile - 1);
+                if (etat == TOUCHE) {
+                    g.setColor(type == BATEAU ? Color.RED : Color.WHITE);
+                    g.drawLine(x + 3, y + 3, x + tailleTuile - 4, y + tailleTuile - 4);
+                    g.drawLine(x + tailleTuile - 4, y + 3, x + 3, y + tailleTuile - 4);
+                }
+            }
+        }
+        g.dispose();
+        return new IHMAtlas(planche, tailleTuile);
+    }
+
+    /**
+     * @return l'atlas partagé par les cases ; dessiné au premier appel si
+     *         aucun n'a été fixé par setCourant.
+     */
+    public static synchronized IHMAtlas getCourant() {
+        if (courant == null) courant = dessiner(TAILLE_DEFAUT);
+        return courant;
+    }
+
+    public static synchronized void setCourant(IHMAtlas atlas) {
+        courant = atlas;
+    }
+
+    /**
+     * @param type EAU, BATEAU...
+     * @param etat NORMAL ou TOUCHE
+     * @return la tuile partagée correspondante
+     */
+    public IHMImage tuile(int type, int etat) {
+        return tuiles[type * ETATS + etat];
+    }
+
+    public int getTailleTuile() {
+        return tailleTuile;
+    }
+
+    /**
+     * @return le nombre de niveaux de mipmap, le dernier d'un pixel de côté.
+     */
+    public int getNiveaux() {
+        return cotes.length;
+    }
+
+    /**
+     * @return le côté en pixels des tuiles du niveau donné.
+     */
+    public int coteNiveau(int niveau) {
+        return cotes[niveau];
+    }
+
+    /**
+     * @param niveau niveau de mipmap, 0 pour les tuiles à leur taille
+     * @return les pixels rvb de la tuile réduite, ligne par ligne ; le
+     *         tableau est partagé et ne doit pas être modifié
+     */
+    public int[] pixelsTuile(int type, int etat, int niveau) {
+        return niveaux[niveau][type * ETATS + etat];
+    }
+
+    public int getTypes() {
+        return types;
+    }
+
+    public IHMImage getPlanche() {
+        return planche;
+    }
+}
@@ -0,0 +1,276 @@
+/******************************************************************************
+ *                              CLASSE IHMChargeur
+ *     Lecture d'images en arrière-plan, sans boite de dialogue :
+ *      - les fichiers sont décodés sur un pool de threads démons
+ *      - chaque demande renvoie un CompletableFuture, le thread appelant
+ *        (par exemple celui de Swing) n'attend jamais le disque
+ *      - deux demandes simultanées du même fichier partagent un seul
+ *        décodage
+ *      - les images décodées restent en cache (LRU) tant que leur taille
+ *        totale ne dépasse pas la borne choisie
+ *      - sur demande (setCompatibles), elles sont converties une fois au
+ *        format de l'écran avant d'entrer dans le cache
+ *
+ * Chaque demande rend sa propre copie des pixels du cache : l'appelant
+ * peut la modifier sans toucher aux demandes suivantes.
+ ******************************************************************************/
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/******************************************************************************/
+
+public class IHMChargeur {
+
+    /** Taille du cache du chargeur commun, en octets de pixels. */
+    public static final long TAILLE_DEFAUT = 64L << 20;
+
+    private static IHMChargeur commun;
+
+    private final ExecutorService pool;
+
+    private final long tailleMax;
+
+    /** Images décodées, de la moins récemment servie à la plus récente. */
+    private final LinkedHashMap<String, BufferedImage> cache =
+            new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+
+    /** Octets de pixels des images du cache. */
+    private long taille;
+
+    /** Décodages en cours, partagés par les demandes du même fichier. */
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> enCours =
+            new ConcurrentHashMap<String, CompletableFuture<BufferedImage>>();
+
+    private volatile boolean compatibles;
+
+    private final AtomicInteger succes = new AtomicInteger();
+
+    private final AtomicInteger decodages = new AtomicInteger();
+
+    /**
+     * @param threads nombre de threads de décodage
+     * @param tailleMax octets de pixels gardés en cache au plus
+     */
+    public IHMChargeur(int threads, long tailleMax) {
+        this.tailleMax = tailleMax;
+        final AtomicInteger numero = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "images-" + numero.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return le chargeur partagé par l'application, créé au premier appel
+     *         avec deux threads et un cache de TAILLE_DEFAUT octets.
+     */
+    public static synchronized IHMChargeur getCommun() {
+        if (commun == null) commun = new IHMChargeur(2, TAILLE_DEFAUT);
+        return commun;
+    }
+
+    /**
+     * Demande la lecture d'un fichier image.
+     * @param chemin chemin d'accès au fichier
+     * @return une copie de l'image, tout de suite si elle est en cache ;
+     *         en cas d'échec le futur se termine par une
+     *         CompletionException dont la cause est l'IOException de
+     *         lecture, ou la RejectedExecutionException d'un chargeur
+     *         arrêté
+     */
+    public CompletableFuture<IHMImage> charger(String chemin) {
+        final File fichier = new File(chemin).getAbsoluteFile();
+        final String cle = fichier.toPath().normalize().toString();
+        BufferedImage lue = enCache(cle);
+        if (lue != null) {
+            succes.incrementAndGet();
+            return CompletableFuture.completedFuture(IHMImage.envelopper(copie(lue), fichier));
+        }
+        CompletableFuture<BufferedImage> decodage = enCours.get(cle);
+        if (decodage == null) {
+            CompletableFuture<BufferedImage> nouveau = new CompletableFuture<BufferedImage>();
+            decodage = enCours.putIfAbsent(cle, nouveau);
+            if (decodage == null) {
+                decodage = nouveau;
+                lancer(cle, fichier, nouveau);
+            }
+        }
+        return decodage.thenApply(new Function<BufferedImage, IHMImage>() {
+            @Override
+            public IHMImage apply(BufferedImage image) {
+                return IHMImage.envelopper(copie(image), fichier);
+            }
+        });
+    }
+
+    /** Copie les pixels d'une image du cache, dans le même format. */
+    static BufferedImage copie(BufferedImage image) {
+        ColorModel cm = image.getColorModel();
+        return new BufferedImage(cm, image.copyData(null),
+                cm.isAlphaPremultiplied(), null);
+    }
+
+    private void lancer(final String cle, final File fichier,
+                        final CompletableFuture<BufferedImage> resultat) {
+        try {
+            CompletableFuture.supplyAsync(new Supplier<BufferedImage>() {
+                @Override
+                public BufferedImage get() {
+                    // Un décodage a pu finir entre enCache et putIfAbsent.
+                    BufferedImage image = enCache(cle);
+                    if (image != null) return image;
+                    decodages.incrementAndGet();
+                    try {
+                        image = IHMImage.decoder(fichier);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                    if (compatibles) {
+                        image = IHMImage.envelopper(image, fichier).compatible().getImage();
+                    }
+                    garder(cle, image);
+                    return image;
+                }
+            }, pool).whenComplete(new BiConsumer<BufferedImage, Throwable>() {
+                @Override
+                public void accept(BufferedImage image, Throwable erreur) {
+                    // L'image est en cache avant que le décodage ne soit oublié :
+                    // une demande concurrente trouve toujours l'un ou l'autre.
+                    enCours.remove(cle, resultat);
+                    if (erreur != null) resultat.completeExceptionally(erreur);
+                    else resultat.complete(image);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Chargeur arrêté : la demande échoue au lieu de rester en cours.
+            enCours.remove(cle, resultat);
+            resultat.completeExceptionally(new CompletionException(e));
+        }
+    }
+
+    /**
+     * Lecture bloquante, pour les appels hors du thread de Swing.
+     * @throws IOException si le fichier est illisible ou n'est pas une image
+     */
+    public IHMImage lire(String chemin) throws IOException {
+        try {
+            return charger(chemin).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("lecture interrompue : " + chemin, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("lecture impossible : " + chemin, cause);
+        }
+    }
+
+    /**
+     * Convertit les images décodées au format de l'écran (voir
+     * IHMImage.compatible), pour les sprites dessinés souvent. Les images
+     * déjà en cache restent telles quelles : appeler vider au besoin.
+     */
+    public void setCompatibles(boolean compatibles) {
+        this.compatibles = compatibles;
+    }
+
+    public boolean getCompatibles() {
+        return compatibles;
+    }
+
+    private synchronized BufferedImage enCache(String cle) {
+        return cache.get(cle);
+    }
+
+    /**
+     * Met l'image en cache et oublie les moins récemment servies jusqu'à
+     * repasser sous tailleMax ; une image plus grosse que le cache entier
+     * n'y entre pas.
+     */
+    private synchronized void garder(String cle, BufferedImage image) {
+        long octets = octets(image);
+        if (octets > tailleMax) return;
+        BufferedImage ancienne = cache.put(cle, image);
+        if (ancienne != null) taille -= octets(ancienne);
+        taille += octets;
+        Iterator<Map.Entry<String, BufferedImage>> it = cache.entrySet().iterator();
+        while (taille > tailleMax && it.hasNext()) {
+            Map.Entry<String, BufferedImage> e = it.next();
+            if (e.getKey().equals(cle)) continue;
+            taille -= octets(e.getValue());
+            it.remove();
+        }
+    }
+
+    /** Octets occupés par les pixels d'une image. */
+    static long octets(BufferedImage image) {
+        DataBuffer donnees = image.getRaster().getDataBuffer();
+        return (long) donnees.getSize() * donnees.getNumBanks()
+                * DataBuffer.getDataTypeSize(donnees.getDataType()) / 8;
+    }
+
+    /** Retire un fichier du cache, par exemple après l'avoir réécrit. */
+    public synchronized void oublier(String chemin) {
+        String cle = new File(chemin).getAbsoluteFile().toPath().normalize().toString();
+        BufferedImage ancienne = cache.remove(cle);
+        if (ancienne != null) taille -= octets(ancienne);
+    }
+
+    public synchronized void vider() {
+        cache.clear();
+        taille = 0;
+    }
+
+    /** @return les octets de pixels actuellement en cache. */
+    public synchronized long getTaille() {
+        return taille;
+    }
+
+    public synchronized int getNombre() {
+        return cache.size();
+    }
+
+    /** @return le nombre de demandes servies directement par le cache. */
+    public int getSucces() {
+        return succes.get();
+    }
+
+    /** @return le nombre de fichiers réellement décodés. */
+    public int getDecodages() {
+        return decodages.get();
+    }
+
+    /**
+     * Arrête les threads de décodage ; les demandes suivantes qui ne sont
+     * pas servies par le cache échouent.
+     */
+    public void arreter() {
+        pool.shutdown();
+    }
+}
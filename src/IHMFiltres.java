@@ -0,0 +1,366 @@
+/******************************************************************************
+ *                              CLASSE IHMFiltres
+ *     Chaîne de filtres appliquée à une IHMImage, pour fabriquer les
+ *     habillages du plateau :
+ *      - opérations pixel par pixel (recoloriage, teinte, gris...)
+ *      - flou, contour, mise à l'échelle
+ *
+ * Les opérations pixel par pixel consécutives sont fusionnées en une seule
+ * passe. Chaque passe découpe l'image en tuiles traitées en parallèle sur
+ * un pool fork-join ; un pixel de sortie ne dépend que de l'image d'entrée
+ * de la passe, le résultat est donc identique au traitement séquentiel.
+ *
+ * Exemple :
+ *     IHMImage theme = new IHMFiltres().teinter(0x2060C0, 96)
+ *                                      .flou(1).contour(0x000000)
+ *                                      .echelle(2.0).appliquer(tuile);
+ ******************************************************************************/
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/******************************************************************************/
+
+public class IHMFiltres {
+
+    /** Opération sur un pixel 0xAARRVVBB. */
+    public interface operation {
+        int appliquer(int argb);
+    }
+
+    /** Aire (en pixels) en dessous de laquelle une tuile n'est plus découpée. */
+    private static final int TUILE = 64 * 64;
+
+    private final List<passe> passes = new ArrayList<passe>();
+
+    /***********************************************************************
+     *                     Construction de la chaîne                       *
+     ***********************************************************************/
+
+    /**
+     * Ajoute une opération pixel par pixel ; elle est fusionnée avec les
+     * opérations pixel par pixel qui la précèdent directement.
+     */
+    public IHMFiltres point(operation op) {
+        passe derniere = passes.isEmpty() ? null : passes.get(passes.size() - 1);
+        if (derniere instanceof passePoint) {
+            ((passePoint) derniere).ops.add(op);
+        } else {
+            passePoint p = new passePoint();
+            p.ops.add(op);
+            passes.add(p);
+        }
+        return this;
+    }
+
+    /**
+     * Remplace la couleur de (exactement, alpha ignoré) par vers.
+     */
+    public IHMFiltres recolorer(final int de, final int vers) {
+        return point(new operation() {
+            @Override
+            public int appliquer(int argb) {
+                return ((argb & 0xFFFFFF) == (de & 0xFFFFFF))
+                        ? (argb & 0xFF000000) | (vers & 0xFFFFFF) : argb;
+            }
+        });
+    }
+
+    /**
+     * Mélange la couleur rvb à chaque pixel.
+     * @param force de 0 (aucun effet) à 255 (couleur pleine)
+     */
+    public IHMFiltres teinter(final int rvb, final int force) {
+        return point(new operation() {
+            @Override
+            public int appliquer(int argb) {
+                return IHMImage.melange(rvb, argb, force);
+            }
+        });
+    }
+
+    public IHMFiltres niveauxDeGris() {
+        return point(new operation() {
+            @Override
+            public int appliquer(int argb) {
+                int g = (((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 150
+                        + (argb & 0xFF) * 29) >> 8;
+                return (argb & 0xFF000000) | (g << 16) | (g << 8) | g;
+            }
+        });
+    }
+
+    /**
+     * Flou par moyenne sur un carré de côté 2 * rayon + 1 (en deux passes,
+     * horizontale puis verticale).
+     */
+    public IHMFiltres flou(int rayon) {
+        if (rayon > 0) {
+            passes.add(new passeFlou(rayon, true));
+            passes.add(new passeFlou(rayon, false));
+        }
+        return this;
+    }
+
+    /**
+     * Colorie en couleur les pixels dont une voisine (haut, bas, gauche,
+     * droite) est d'une autre couleur.
+     */
+    public IHMFiltres contour(int couleur) {
+        passes.add(new passeContour(couleur));
+        return this;
+    }
+
+    /**
+     * Mise à l'échelle au plus proche voisin.
+     */
+    public IHMFiltres echelle(double facteur) {
+        passes.add(new passeEchelle(facteur));
+        return this;
+    }
+
+    /***********************************************************************
+     *                            Application                              *
+     ***********************************************************************/
+
+    /**
+     * Applique la chaîne en parallèle sur le pool commun.
+     * @return une nouvelle image, source inchangée
+     */
+    public IHMImage appliquer(IHMImage source) {
+        return appliquer(source, ForkJoinPool.commonPool());
+    }
+
+    public IHMImage appliquer(IHMImage source, ForkJoinPool pool) {
+        return executer(source, pool);
+    }
+
+    /**
+     * Même chose, entièrement dans le thread appelant.
+     */
+    public IHMImage appliquerSequentiel(IHMImage source) {
+        return executer(source, null);
+    }
+
+    private IHMImage executer(IHMImage source, ForkJoinPool pool) {
+        int l = source.largeur();
+        int h = source.hauteur();
+        int[] entree = source.lireRect(0, 0, l, h, new int[l * h], 0, l);
+        for (passe p : passes) {
+            int lSortie = p.largeurSortie(l);
+            int hSortie = p.hauteurSortie(h);
+            int[] sortie = new int[lSortie * hSortie];
+            if (pool == null) {
+                // Tuiles de 64 x 64 parcourues dans l'ordre
+                for (int y = 0; y < hSortie; y += 64) {
+                    for (int x = 0; x < lSortie; x += 64) {
+                        p.traiter(entree, l, h, sortie, lSortie, x, y,
+                                  Math.min(x + 64, lSortie),
+                                  Math.min(y + 64, hSortie));
+                    }
+                }
+            } else {
+                pool.invoke(new tuile(p, entree, l, h, sortie, lSortie,
+                                      0, 0, lSortie, hSortie));
+            }
+            entree = sortie;
+            l = lSortie;
+            h = hSortie;
+        }
+        boolean alpha = source.getImage().getColorModel().hasAlpha();
+        IHMImage resultat = new IHMImage(l, h, alpha
+                ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        resultat.ecrireRect(0, 0, l, h, entree, 0, l);
+        return resultat;
+    }
+
+    /**
+     * Rectangle de l'image de sortie d'une passe ; découpé en deux tant
+     * qu'il dépasse TUILE pixels.
+     */
+    private static class tuile extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final passe p;
+        private final int[] entree;
+        private final int l;
+        private final int h;
+        private final int[] sortie;
+        private final int lSortie;
+        private final int x0;
+        private final int y0;
+        private final int x1;
+        private final int y1;
+
+        tuile(passe p, int[] entree, int l, int h, int[] sortie, int lSortie,
+              int x0, int y0, int x1, int y1) {
+            this.p = p;
+            this.entree = entree;
+            this.l = l;
+            this.h = h;
+            this.sortie = sortie;
+            this.lSortie = lSortie;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            int lt = x1 - x0;
+            int ht = y1 - y0;
+            if ((long) lt * ht <= TUILE) {
+                p.traiter(entree, l, h, sortie, lSortie, x0, y0, x1, y1);
+                return;
+            }
+            tuile a;
+            tuile b;
+            if (lt >= ht) {
+                int m = x0 + lt / 2;
+                a = new tuile(p, entree, l, h, sortie, lSortie, x0, y0, m, y1);
+                b = new tuile(p, entree, l, h, sortie, lSortie, m, y0, x1, y1);
+            } else {
+                int m = y0 + ht / 2;
+                a = new tuile(p, entree, l, h, sortie, lSortie, x0, y0, x1, m);
+                b = new tuile(p, entree, l, h, sortie, lSortie, x0, m, x1, y1);
+            }
+            invokeAll(a, b);
+        }
+    }
+
+    /**
+     * Une passe calcule chaque pixel de sortie à partir de l'image d'entrée.
+     */
+    private abstract static class passe {
+
+        int largeurSortie(int l) {
+            return l;
+        }
+
+        int hauteurSortie(int h) {
+            return h;
+        }
+
+        /**
+         * Calcule les pixels [x0, x1) x [y0, y1) de la sortie.
+         */
+        abstract void traiter(int[] entree, int l, int h, int[] sortie,
+                              int lSortie, int x0, int y0, int x1, int y1);
+    }
+
+    private static class passePoint extends passe {
+
+        final List<operation> ops = new ArrayList<operation>();
+
+        @Override
+        void traiter(int[] entree, int l, int h, int[] sortie, int lSortie,
+                     int x0, int y0, int x1, int y1) {
+            operation[] chaine = ops.toArray(new operation[0]);
+            for (int y = y0; y < y1; y++) {
+                for (int i = y * l + x0; i < y * l + x1; i++) {
+                    int px = entree[i];
+                    for (operation op : chaine) px = op.appliquer(px);
+                    sortie[i] = px;
+                }
+            }
+        }
+    }
+
+    private static class passeFlou extends passe {
+
+        private final int rayon;
+
+        private final boolean horizontal;
+
+        passeFlou(int rayon, boolean horizontal) {
+            this.rayon = rayon;
+            this.horizontal = horizontal;
+        }
+
+        @Override
+        void traiter(int[] entree, int l, int h, int[] sortie, int lSortie,
+                     int x0, int y0, int x1, int y1) {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int a = 0, r = 0, v = 0, b = 0, n = 0;
+                    for (int k = -rayon; k <= rayon; k++) {
+                        int sx = horizontal ? x + k : x;
+                        int sy = horizontal ? y : y + k;
+                        if (sx < 0 || sy < 0 || sx >= l || sy >= h) continue;
+                        int px = entree[sy * l + sx];
+                        a += (px >>> 24);
+                        r += (px >> 16) & 0xFF;
+                        v += (px >> 8) & 0xFF;
+                        b += px & 0xFF;
+                        n++;
+                    }
+                    int m = n / 2;
+                    sortie[y * l + x] = (((a + m) / n) << 24) | (((r + m) / n) << 16)
+                            | (((v + m) / n) << 8) | ((b + m) / n);
+                }
+            }
+        }
+    }
+
+    private static class passeContour extends passe {
+
+        private final int couleur;
+
+        passeContour(int couleur) {
+            this.couleur = couleur;
+        }
+
+        @Override
+        void traiter(int[] entree, int l, int h, int[] sortie, int lSortie,
+                     int x0, int y0, int x1, int y1) {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int px = entree[y * l + x];
+                    boolean bord = (x > 0 && entree[y * l + x - 1] != px)
+                            || (x < l - 1 && entree[y * l + x + 1] != px)
+                            || (y > 0 && entree[(y - 1) * l + x] != px)
+                            || (y < h - 1 && entree[(y + 1) * l + x] != px);
+                    sortie[y * l + x] = bord
+                            ? (px & 0xFF000000) | (couleur & 0xFFFFFF) : px;
+                }
+            }
+        }
+    }
+
+    private static class passeEchelle extends passe {
+
+        private final double facteur;
+
+        passeEchelle(double facteur) {
+            this.facteur = facteur;
+        }
+
+        @Override
+        int largeurSortie(int l) {
+            return Math.max(1, (int) Math.round(l * facteur));
+        }
+
+        @Override
+        int hauteurSortie(int h) {
+            return Math.max(1, (int) Math.round(h * facteur));
+        }
+
+        @Override
+        void traiter(int[] entree, int l, int h, int[] sortie, int lSortie,
+                     int x0, int y0, int x1, int y1) {
+            int hSortie = hauteurSortie(h);
+            for (int y = y0; y < y1; y++) {
+                int sy = (int) ((long) y * h / hSortie);
+                for (int x = x0; x < x1; x++) {
+                    int sx = (int) ((long) x * l / lSortie);
+                    sortie[y * lSortie + x] = entree[sy * l + sx];
+                }
+            }
+        }
+    }
+}
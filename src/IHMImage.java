@@ -12,13 +12,25 @@
  * @version 1.1
  ******************************************************************************/
 
+import java.awt.AlphaComposite;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -153,15 +165,32 @@ public class IHMImage {
      *         tableau de 3 entiers {R, V, B} compris entre 0 et 255.
      */
     public int[] getPixel(int i, int j) {
-        int[] px = new int[3];
-        int p = this.image.getRGB(i, j) + 0x1000000;
-        px[2] = p % 0x100;
-        p = p / 0x100;
-        px[1] = p % 0x100;
-        px[0] = p / 0x100;
+        return this.getPixel(i, j, new int[3]);
+    }
+    
+    /**
+     * Même chose que le précédent, sans allocation : le résultat est écrit
+     * dans le tableau px fourni.
+     * @param i abscisse
+     * @param j ordonnée
+     * @param px tableau d'au moins 3 entiers
+     * @return px rempli avec {R, V, B}
+     */
+    public int[] getPixel(int i, int j, int[] px) {
+        int p = this.image.getRGB(i, j);
+        px[0] = (p >> 16) & 0xFF;
+        px[1] = (p >> 8) & 0xFF;
+        px[2] = p & 0xFF;
         return px;
     }
     
+    /**
+     * @return l'image Java sous-jacente, pour dessiner directement dessus.
+     */
+    public BufferedImage getImage() {
+        return this.image;
+    }
+    
     public String getPathname() {
         return this.pathname;
     }
@@ -219,10 +248,325 @@ public class IHMImage {
      * @param y ordonnée  du point d'incrustation
      */
 	public void incrusteImage(IHMImage Insert, int x, int y) { 
+        long t0 = mesures.ACTIF ? System.nanoTime() : 0;
         int l = Insert.largeur();
         int h = Insert.hauteur();
-		this.image.createGraphics().drawImage(Insert.image, x, y, l, h, null);
+        if (Insert.estOpaqueEntier() && Insert.image.getType() == this.image.getType()) {
+            this.copierDepuis(Insert, 0, 0, x, y, l, h);
+        } else {
+            Graphics2D g = this.image.createGraphics();
+            g.drawImage(Insert.image, x, y, l, h, null);
+            g.dispose();
+        }
+        if (mesures.ACTIF) mesures.INCRUSTATIONS.noter(System.nanoTime() - t0);
 	}	
+    
+    /**
+     * Copie l'image au format de pixels de l'écran, pour que drawImage et
+     * incrusteImage n'aient plus de conversion à faire à chaque dessin :
+     * une image lue sur le disque (souvent TYPE_3BYTE_BGR) est convertie
+     * une fois pour toutes. Java2D peut ensuite garder la copie en mémoire
+     * vidéo tant qu'on n'accède pas directement à ses pixels.
+     * @param gc configuration de l'écran ; si null (sans écran), les images
+     *        opaques passent en TYPE_INT_RGB, les autres en TYPE_INT_ARGB
+     * @return cette image si elle est déjà au bon format, sinon une copie
+     */
+    public IHMImage compatible(GraphicsConfiguration gc) {
+        int transparence = this.image.getTransparency();
+        int l = this.largeur();
+        int h = this.hauteur();
+        BufferedImage copie;
+        if (gc != null) {
+            if (gc.getColorModel(transparence).equals(this.image.getColorModel())) {
+                return this;
+            }
+            copie = gc.createCompatibleImage(l, h, transparence);
+        } else {
+            int type = (transparence == Transparency.OPAQUE)
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+            if (this.image.getType() == type) return this;
+            copie = new BufferedImage(l, h, type);
+        }
+        Graphics2D g = copie.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(this.image, 0, 0, null);
+        g.dispose();
+        IHMImage img = new IHMImage();
+        img.image = copie;
+        img.pathname = this.pathname;
+        img.repertoire = this.repertoire;
+        return img;
+    }
+
+    /**
+     * Même chose que le précédent, pour l'écran principal.
+     */
+    public IHMImage compatible() {
+        return this.compatible(configurationEcran());
+    }
+
+    /***********************************************************************
+     *                   Accès groupé aux pixels                           *
+     *  Pour les images TYPE_INT_RGB et TYPE_INT_ARGB, ces méthodes lisent *
+     *  et écrivent directement dans le tableau d'entiers de l'image, sans *
+     *  allocation par pixel. Les autres formats passent par les versions  *
+     *  groupées de getRGB / setRGB.                                       *
+     *  Remarque : un accès direct empêche Java2D d'accélérer ensuite      *
+     *  l'affichage de cette image.                                        *
+     ***********************************************************************/
+    
+    /**
+     * @return vrai si les pixels sont des entiers 0xAARRVVBB accessibles
+     *         directement.
+     */
+    public boolean estEntier() {
+        int type = this.image.getType();
+        return (type == BufferedImage.TYPE_INT_RGB
+                || type == BufferedImage.TYPE_INT_ARGB)
+            && this.image.getRaster().getDataBuffer() instanceof DataBufferInt
+            && this.image.getRaster().getSampleModel()
+                   instanceof SinglePixelPackedSampleModel;
+    }
+    
+    private boolean estOpaqueEntier() {
+        return this.estEntier()
+            && this.image.getType() == BufferedImage.TYPE_INT_RGB;
+    }
+    
+    /** Tableau d'entiers de l'image (estEntier() doit être vrai). */
+    private int[] donnees() {
+        return ((DataBufferInt) this.image.getRaster().getDataBuffer())
+                .getData();
+    }
+    
+    /** Longueur d'une ligne dans le tableau d'entiers. */
+    private int pas() {
+        return ((SinglePixelPackedSampleModel)
+                this.image.getRaster().getSampleModel()).getScanlineStride();
+    }
+    
+    /**
+     * Indice du pixel (0;0) dans le tableau d'entiers ; non nul pour une
+     * sous-image obtenue par rogne.
+     */
+    private int origine() {
+        WritableRaster r = this.image.getRaster();
+        DataBuffer db = r.getDataBuffer();
+        return db.getOffset()
+             - r.getSampleModelTranslateY() * this.pas()
+             - r.getSampleModelTranslateX();
+    }
+    
+    /**
+     * Vérifie que la zone est entièrement dans l'image : les accès directs
+     * au tableau d'une sous-image obtenue par rogne déborderaient sinon
+     * sans erreur dans l'image parente.
+     * @throws ArrayIndexOutOfBoundsException si la zone sort de l'image
+     */
+    private void verifierZone(int x0, int y0, int l, int h) {
+        if (x0 < 0 || y0 < 0 || l < 0 || h < 0
+                || x0 > this.largeur() - l || y0 > this.hauteur() - h) {
+            throw new ArrayIndexOutOfBoundsException("zone (" + x0 + ";" + y0
+                    + ") " + l + "x" + h + " hors de l'image "
+                    + this.largeur() + "x" + this.hauteur());
+        }
+    }
+    
+    /**
+     * Lit les pixels d'une zone rectangulaire sous forme d'entiers rvb
+     * (avec alpha à 0xFF pour une image sans transparence).
+     * @param x0 abscisse du coin supérieur gauche
+     * @param y0 ordonnée du même coin
+     * @param l largeur de la zone
+     * @param h hauteur de la zone
+     * @param dest tableau destination
+     * @param decalage indice du premier pixel dans dest
+     * @param ligne nombre d'entiers entre deux lignes dans dest
+     * @return dest
+     * @throws ArrayIndexOutOfBoundsException si la zone sort de l'image
+     */
+    public int[] lireRect(int x0, int y0, int l, int h,
+                          int[] dest, int decalage, int ligne) {
+        this.verifierZone(x0, y0, l, h);
+        if (!this.estEntier()) {
+            return this.image.getRGB(x0, y0, l, h, dest, decalage, ligne);
+        }
+        int[] src = this.donnees();
+        int pas = this.pas();
+        int debut = this.origine() + y0 * pas + x0;
+        boolean opaque = this.image.getType() == BufferedImage.TYPE_INT_RGB;
+        for (int j = 0; j < h; j++) {
+            int s = debut + j * pas;
+            int d = decalage + j * ligne;
+            System.arraycopy(src, s, dest, d, l);
+            if (opaque) {
+                for (int k = d; k < d + l; k++) dest[k] |= 0xFF000000;
+            }
+        }
+        return dest;
+    }
+    
+    /**
+     * Lit la ligne j de l'image.
+     * @param j ordonnée de la ligne
+     * @param dest tableau d'au moins largeur() entiers
+     * @return dest
+     */
+    public int[] lireLigne(int j, int[] dest) {
+        return this.lireRect(0, j, this.largeur(), 1, dest, 0, this.largeur());
+    }
+    
+    /**
+     * Ecrit des entiers rvb dans une zone rectangulaire de l'image.
+     * @param x0 abscisse du coin supérieur gauche
+     * @param y0 ordonnée du même coin
+     * @param l largeur de la zone
+     * @param h hauteur de la zone
+     * @param src tableau source
+     * @param decalage indice du premier pixel dans src
+     * @param ligne nombre d'entiers entre deux lignes dans src
+     * @throws ArrayIndexOutOfBoundsException si la zone sort de l'image
+     */
+    public void ecrireRect(int x0, int y0, int l, int h,
+                           int[] src, int decalage, int ligne) {
+        this.verifierZone(x0, y0, l, h);
+        if (!this.estEntier()) {
+            this.image.setRGB(x0, y0, l, h, src, decalage, ligne);
+            return;
+        }
+        int[] dest = this.donnees();
+        int pas = this.pas();
+        int debut = this.origine() + y0 * pas + x0;
+        for (int j = 0; j < h; j++) {
+            System.arraycopy(src, decalage + j * ligne, dest, debut + j * pas, l);
+        }
+    }
+    
+    /**
+     * Ecrit la ligne j de l'image.
+     * @param j ordonnée de la ligne
+     * @param src tableau d'au moins largeur() entiers
+     */
+    public void ecrireLigne(int j, int[] src) {
+        this.ecrireRect(0, j, this.largeur(), 1, src, 0, this.largeur());
+    }
+    
+    /**
+     * Remplit une zone rectangulaire avec la couleur rvb.
+     * @throws ArrayIndexOutOfBoundsException si la zone sort de l'image
+     */
+    public void remplir(int x0, int y0, int l, int h, int rvb) {
+        this.verifierZone(x0, y0, l, h);
+        if (!this.estEntier()) {
+            int[] ligne = new int[l];
+            Arrays.fill(ligne, rvb);
+            for (int j = 0; j < h; j++) {
+                this.image.setRGB(x0, y0 + j, l, 1, ligne, 0, l);
+            }
+            return;
+        }
+        int[] dest = this.donnees();
+        int pas = this.pas();
+        int debut = this.origine() + y0 * pas + x0;
+        for (int j = 0; j < h; j++) {
+            int d = debut + j * pas;
+            Arrays.fill(dest, d, d + l, rvb);
+        }
+    }
+    
+    /**
+     * Mélange la couleur rvb aux pixels d'une zone rectangulaire :
+     * chaque composante devient (c * force + p * (255 - force)) / 255.
+     * L'alpha des pixels est conservé.
+     * @param force de 0 (aucun effet) à 255 (couleur pleine)
+     * @throws ArrayIndexOutOfBoundsException si la zone sort de l'image
+     */
+    public void teinter(int x0, int y0, int l, int h, int rvb, int force) {
+        this.verifierZone(x0, y0, l, h);
+        int[] ligne = new int[l];
+        for (int j = 0; j < h; j++) {
+            this.lireRect(x0, y0 + j, l, 1, ligne, 0, l);
+            for (int k = 0; k < l; k++) {
+                ligne[k] = IHMImage.melange(rvb, ligne[k], force);
+            }
+            this.ecrireRect(x0, y0 + j, l, 1, ligne, 0, l);
+        }
+    }
+    
+    /**
+     * Mélange l'image Insert à cette image au point (x;y) avec une opacité
+     * constante. Seule la partie d'Insert qui tombe dans cette image est
+     * mélangée.
+     * @param Insert IHMImage à mélanger
+     * @param x abscisse du point d'incrustation
+     * @param y ordonnée du point d'incrustation
+     * @param force de 0 (cette image inchangée) à 255 (Insert seule)
+     */
+    public void melanger(IHMImage Insert, int x, int y, int force) {
+        int sx = 0;
+        int sy = 0;
+        int l = Insert.largeur();
+        int h = Insert.hauteur();
+        // Découpage de la zone à la partie commune aux deux images
+        if (x < 0) { sx -= x; l += x; x = 0; }
+        if (y < 0) { sy -= y; h += y; y = 0; }
+        l = Math.min(l, this.largeur() - x);
+        h = Math.min(h, this.hauteur() - y);
+        if (l <= 0 || h <= 0) return;
+        int[] dessus = new int[l];
+        int[] dessous = new int[l];
+        for (int j = 0; j < h; j++) {
+            Insert.lireRect(sx, sy + j, l, 1, dessus, 0, l);
+            this.lireRect(x, y + j, l, 1, dessous, 0, l);
+            for (int k = 0; k < l; k++) {
+                dessous[k] = IHMImage.melange(dessus[k], dessous[k], force);
+            }
+            this.ecrireRect(x, y + j, l, 1, dessous, 0, l);
+        }
+    }
+    
+    /**
+     * Applique une chaîne de filtres à cette image.
+     * @param chaine filtres à appliquer, en parallèle
+     * @return une nouvelle <code>IHMImage</code>, celle-ci restant inchangée
+     */
+    public IHMImage filtrer(IHMFiltres chaine) {
+        return chaine.appliquer(this);
+    }
+    
+    /**
+     * Copie une zone de l'image Insert dans cette image, au point (x;y).
+     */
+    private void copierDepuis(IHMImage Insert, int sx, int sy,
+                              int x, int y, int l, int h) {
+        // Découpage de la zone à la partie commune aux deux images
+        if (x < 0) { sx -= x; l += x; x = 0; }
+        if (y < 0) { sy -= y; h += y; y = 0; }
+        l = Math.min(l, this.largeur() - x);
+        h = Math.min(h, this.hauteur() - y);
+        if (l <= 0 || h <= 0) return;
+        int[] src = Insert.donnees();
+        int[] dest = this.donnees();
+        int pasSrc = Insert.pas();
+        int pasDest = this.pas();
+        int s = Insert.origine() + sy * pasSrc + sx;
+        int d = this.origine() + y * pasDest + x;
+        for (int j = 0; j < h; j++, s += pasSrc, d += pasDest) {
+            System.arraycopy(src, s, dest, d, l);
+        }
+    }
+    
+    /**
+     * Mélange deux couleurs composante par composante, alpha de dessous
+     * conservé.
+     */
+    static int melange(int dessus, int dessous, int force) {
+        int inverse = 255 - force;
+        int r = (((dessus >> 16) & 0xFF) * force + ((dessous >> 16) & 0xFF) * inverse) / 255;
+        int v = (((dessus >> 8) & 0xFF) * force + ((dessous >> 8) & 0xFF) * inverse) / 255;
+        int b = ((dessus & 0xFF) * force + (dessous & 0xFF) * inverse) / 255;
+        return (dessous & 0xFF000000) | (r << 16) | (v << 8) | b;
+    }
    
     /**
      * Affiche l'image dans une fenêtre anonyme à sa taille réelle.
@@ -255,7 +599,8 @@ public class IHMImage {
      * @param echelle facteur d'échelle
      */
     public void afficher(final String titre, final double echelle) {
-        final BufferedImage img = this.image;
+        // Convertie une fois ici plutôt qu'à chaque repeint de la fenêtre.
+        final BufferedImage img = this.compatible().image;
         final String nomFichier = this.pathname;
         final String dossier    = this.repertoire;
         SwingUtilities.invokeLater(new Runnable() {
@@ -413,16 +758,33 @@ public class IHMImage {
             private static final long serialVersionUID = 1L;
             /**
              * surcharge de paintComponent de façon à afficher le
-             * contenu de notre BufferedImage.
+             * contenu de notre BufferedImage : seule la partie de l'image
+             * sous la zone à repeindre est mise à l'échelle.
              */
             @Override
             public void paintComponent(Graphics g) {
+                super.paintComponent(g);
                 int x, y, width, height;
                 width  = (int) (echelle*img.getWidth(this));
                 height = (int) (echelle*img.getHeight(this));
                 x = (this.getWidth() - width)/2;
                 y = (this.getHeight()- height)/2;
-                g.drawImage(img, x, y, width, height, null);
+                Rectangle zone = g.getClipBounds();
+                if (zone == null) zone = new Rectangle(x, y, width, height);
+                zone = zone.intersection(new Rectangle(x, y, width, height));
+                if (zone.isEmpty()) return;
+                int sx1 = (int) Math.floor((zone.x - x) / echelle);
+                int sy1 = (int) Math.floor((zone.y - y) / echelle);
+                int sx2 = Math.min(img.getWidth(),
+                        (int) Math.ceil((zone.x + zone.width - x) / echelle));
+                int sy2 = Math.min(img.getHeight(),
+                        (int) Math.ceil((zone.y + zone.height - y) / echelle));
+                g.drawImage(img,
+                        x + (int) Math.floor(sx1 * echelle),
+                        y + (int) Math.floor(sy1 * echelle),
+                        x + (int) Math.ceil(sx2 * echelle),
+                        y + (int) Math.ceil(sy2 * echelle),
+                        sx1, sy1, sx2, sy2, null);
             }
              
             /** Constructeur qui définit la taille préférée du panneau */
@@ -544,4 +906,53 @@ public class IHMImage {
         if (img.image == null) return null;
         else return img;
     }
+    
+    /**
+     * Construit une instance de <code>IHMImage</code> à partir d'un
+     * fichier image désigné par son chemin, sans boite de dialogue.
+     * @param chemin chemin d'accès au fichier
+     * @return une instance de <code>IHMImage</code>
+     * @throws IOException si le fichier est illisible ou n'est pas une image
+     */
+    public static IHMImage lire(String chemin) throws IOException {
+        File fichier = new File(chemin);
+        return envelopper(decoder(fichier), fichier);
+    }
+
+    /**
+     * Lit un fichier image en arrière-plan, sans boite de dialogue, par le
+     * chargeur commun : les lectures répétées du même fichier sont servies
+     * par son cache.
+     * @param chemin chemin d'accès au fichier
+     * @return l'image à venir (voir <code>IHMChargeur.charger</code>)
+     */
+    public static CompletableFuture<IHMImage> lireEnFond(String chemin) {
+        return IHMChargeur.getCommun().charger(chemin);
+    }
+
+    /**
+     * @return la configuration de l'écran principal, null sans écran
+     *         (mode headless).
+     */
+    public static GraphicsConfiguration configurationEcran() {
+        if (GraphicsEnvironment.isHeadless()) return null;
+        return GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+    }
+
+    static BufferedImage decoder(File fichier) throws IOException {
+        BufferedImage lue = ImageIO.read(fichier);
+        if (lue == null) {
+            throw new IOException("format d'image inconnu : " + fichier);
+        }
+        return lue;
+    }
+
+    static IHMImage envelopper(BufferedImage lue, File fichier) {
+        IHMImage img = new IHMImage();
+        img.image = lue;
+        img.pathname = fichier.getAbsolutePath();
+        img.repertoire = fichier.getAbsoluteFile().getParent();
+        return img;
+    }
 }
\ No newline at end of file
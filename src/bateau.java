@@ -10,12 +10,80 @@ public class bateau {
 
     private int y;
 
-    private boolean horizontal;
-    
-    private segmentBateau[] segments = new segmentBateau[6];
+    private boolean horizontal = true;
+
+    /** Grille où le bateau est posé, qui tient ses segments intacts, ou null. */
+    private grille source;
+
+    /** Numéro du bateau dans source. */
+    private int numero = -1;
+
+    /**
+     * Bateau de la taille donnée, pas encore posé sur un plateau.
+     */
+    public bateau(int taille, boolean horizontal) {
+        setTaille(taille);
+        this.horizontal = horizontal;
+    }
+
+    /**
+     * Vue sur le bateau numéro k déjà posé sur la grille source.
+     */
+    bateau(grille source, int k) {
+        this(source.navireTaille(k), source.navireHorizontal(k));
+        this.x = source.navireX(k);
+        this.y = source.navireY(k);
+        attacher(source, k);
+    }
+
+    /**
+     * Pose sur Obj un bateau de la taille et de l'orientation données à
+     * partir de (x;y).
+     * @throws IllegalArgumentException si le bateau ne rentre pas
+     */
+    public bateau(int x, int y, int taille, boolean horizontal, plateau Obj) {
+        this(taille, horizontal);
+        if (!Obj.tryPlace(x, y, this)) {
+            throw new IllegalArgumentException("placement impossible en ("
+                    + x + ";" + y + ")");
+        }
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public boolean isHorizontal() {
+        return horizontal;
+    }
+
+    public void setHorizontal(boolean horizontal) {
+        this.horizontal = horizontal;
+    }
+
+    void setPosition(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Le bateau est désormais le numéro k de la grille : ses touches sont
+     * comptées par la grille à chaque tir.
+     */
+    void attacher(grille source, int k) {
+        this.source = source;
+        this.numero = k;
+    }
 
-    public bateau(int x, int y, plateau Obj) {
-        //TODO: placer bateau
+    /**
+     * @return le numéro du bateau dans sa grille, -1 s'il n'est pas posé.
+     */
+    public int getNumero() {
+        return numero;
     }
 
     public int getTaille() {
@@ -28,14 +96,18 @@ public class bateau {
     }
 
     public boolean enVie() {
-        return taille <= 0;
+        return caseRestantes() > 0;
     }
 
     public int caseRestantes() {
-        return taille;
+        return (source != null) ? source.navireRestant(numero) : taille;
     }
 
+    /**
+     * Un segment du bateau est touché. Une fois posé, le bateau est tenu
+     * à jour par la grille et cet appel ne change rien.
+     */
     public void touche() {
-        taille--;
+        if (source == null && taille > 0) taille--;
     }
 }
@@ -6,21 +6,59 @@ public class cases {
     boolean touche = false;
     IHMImage toucheImg;
     IHMImage normalImg;
+
+    /** Type de tuile dans l'atlas partagé (IHMAtlas.EAU, BATEAU...). */
+    byte type = IHMAtlas.EAU;
+
+    /** Grille dont cette case est une vue, ou null pour une case autonome. */
+    private grille source;
+    private int x;
+    private int y;
     
+    /**
+     * Case avec ses propres images ; si elles sont nulles, la case est
+     * dessinée avec les tuiles de l'atlas courant.
+     */
     public cases(IHMImage touche, IHMImage normal) {
         toucheImg = touche;
         normalImg = normal;
     }
 
+    /**
+     * Vue sur la case (x;y) d'une grille : l'état touché est lu dans les
+     * bits de la grille au lieu d'être stocké dans l'objet.
+     */
+    public cases(grille source, int x, int y) {
+        this.source = source;
+        this.x = x;
+        this.y = y;
+    }
+
     public  void toucher() {
-        
+        if (source != null) source.tirer(x, y);
+        touche = true;
+    }
+
+    public boolean estTouche() {
+        return (source != null) ? source.aEteTiree(x, y) : touche;
+    }
+
+    public int getType() {
+        return type;
     }
     
     public IHMImage getImage(){
-        return (touche) ? toucheImg : normalImg;
+        IHMImage propre = (estTouche()) ? toucheImg : normalImg;
+        if (propre != null) return propre;
+        return IHMAtlas.getCourant().tuile(type,
+                estTouche() ? IHMAtlas.TOUCHE : IHMAtlas.NORMAL);
     }
     
     public Dimension getDimension(){
+        if (toucheImg == null || normalImg == null) {
+            int cote = IHMAtlas.getCourant().getTailleTuile();
+            return new Dimension(cote, cote);
+        }
         return new Dimension(Math.min(toucheImg.largeur(), normalImg.largeur()), Math.min(toucheImg.hauteur(), normalImg.hauteur()));
     }
  
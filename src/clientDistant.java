@@ -0,0 +1,364 @@
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Client bloquant du serveur : un joueur distant, avec sa propre flotte
+ * (envoyée par le serveur dans la trame DEBUT) et les tirs connus sur la
+ * grille adverse.
+ * <p>Après chaque appel de lire, les champs de la dernière trame reçue
+ * sont donnés par les accesseurs.
+ */
+public class clientDistant implements Closeable {
+
+    /** Durée accordée à l'essai de bout en bout (main), en secondes. */
+    private static final int DELAI_ESSAI = 60;
+
+    private final SocketChannel canal;
+
+    private final ByteBuffer entree = ByteBuffer.allocate(4096);
+
+    private final ByteBuffer sortie = ByteBuffer.allocate(protocole.TRAME_CLIENT_MAX);
+
+    private int partie;
+
+    private int numero;
+
+    private grille flotte;
+
+    /** Tirs joués sur la grille adverse, sans bateaux : touches et ratés. */
+    private grille adverse;
+
+    private int tireur;
+
+    private int x;
+
+    private int y;
+
+    private int resultat;
+
+    private int suite;
+
+    private int erreur;
+
+    public clientDistant(InetSocketAddress adresse) throws IOException {
+        canal = SocketChannel.open(adresse);
+        canal.socket().setTcpNoDelay(true);
+        entree.flip();
+    }
+
+    /**
+     * Demande une partie et attend son début.
+     * @param code code partagé avec l'adversaire (niveau 0)
+     * @param niveau 0 contre un autre client, 1 à protocole.NIVEAU_MAX
+     *        contre un ordinateur
+     * @throws IOException si le serveur répond par une erreur
+     */
+    public void rejoindre(int code, int niveau) throws IOException {
+        protocole.rejoindre(sortie, code, niveau);
+        envoyer();
+        byte type = lire();
+        if (type != protocole.DEBUT) {
+            throw new IOException("partie refusée, erreur " + erreur);
+        }
+    }
+
+    public void tirer(int x, int y) throws IOException {
+        protocole.tir(sortie, x, y);
+        envoyer();
+    }
+
+    public void quitter() throws IOException {
+        protocole.quitter(sortie);
+        envoyer();
+    }
+
+    private void envoyer() throws IOException {
+        sortie.flip();
+        while (sortie.hasRemaining()) canal.write(sortie);
+        sortie.clear();
+    }
+
+    /**
+     * Attend et décode la trame suivante du serveur.
+     * @return son type (protocole.DEBUT, RESULTAT ou ERREUR)
+     */
+    public byte lire() throws IOException {
+        remplir(2);
+        int longueur = entree.getShort();
+        remplir(longueur);
+        byte type = entree.get();
+        switch (type) {
+            case protocole.DEBUT :
+                partie = entree.getInt();
+                numero = entree.get();
+                int largeur = entree.getInt();
+                int hauteur = entree.getInt();
+                flotte = grille.creer(largeur, hauteur, 0);
+                adverse = grille.creer(largeur, hauteur, 0);
+                int n = entree.getShort();
+                for (int k = 0; k < n; k++) {
+                    int bx = entree.getInt();
+                    int by = entree.getInt();
+                    int taille = entree.getShort();
+                    flotte.placer(bx, by, taille, entree.get() != 0);
+                }
+                break;
+            case protocole.RESULTAT :
+                tireur = entree.get();
+                x = entree.getInt();
+                y = entree.getInt();
+                resultat = entree.get();
+                suite = entree.get();
+                if (resultat == grille.RATE || resultat == grille.TOUCHE) {
+                    if (tireur == numero) {
+                        // La grille adverse n'a pas de bateaux : on y
+                        // reporte une touche en occupant la case d'abord.
+                        if (resultat == grille.TOUCHE) adverse.occuper(x, y);
+                        adverse.tirer(x, y);
+                    } else {
+                        flotte.tirer(x, y);
+                    }
+                }
+                break;
+            case protocole.ERREUR :
+                erreur = entree.get();
+                break;
+            default :
+                throw new IOException("trame inconnue : " + type);
+        }
+        return type;
+    }
+
+    /** Attend que n octets au moins soient lisibles dans entree. */
+    private void remplir(int n) throws IOException {
+        if (entree.remaining() >= n) return;
+        entree.compact();
+        while (entree.position() < n) {
+            if (canal.read(entree) < 0) throw new EOFException("serveur déconnecté");
+        }
+        entree.flip();
+    }
+
+    public int getPartie() {
+        return partie;
+    }
+
+    public int getNumero() {
+        return numero;
+    }
+
+    /**
+     * @return notre flotte, avec les tirs reçus.
+     */
+    public grille getFlotte() {
+        return flotte;
+    }
+
+    /**
+     * @return la grille adverse telle que nos tirs l'ont révélée.
+     */
+    public grille getAdverse() {
+        return adverse;
+    }
+
+    public int getTireur() {
+        return tireur;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getResultat() {
+        return resultat;
+    }
+
+    /**
+     * @return protocole.EN_COURS, GAGNE ou PERDU après un RESULTAT.
+     */
+    public int getSuite() {
+        return suite;
+    }
+
+    public int getErreur() {
+        return erreur;
+    }
+
+    /**
+     * Joue une partie entière au hasard parmi les cases pas encore visées.
+     * @return protocole.GAGNE ou PERDU
+     * @throws IOException si la partie est interrompue par une erreur
+     */
+    public int jouer(SplittableRandom hasard) throws IOException {
+        boolean aMoi = numero == 1;
+        while (true) {
+            if (aMoi) {
+                int n = adverse.getLargeur() * adverse.getHauteur();
+                int i = hasard.nextInt(n);
+                while (adverse.aEteTiree(i)) i = (i + 1 == n) ? 0 : i + 1;
+                tirer(i % adverse.getLargeur(), i / adverse.getLargeur());
+            }
+            byte type = lire();
+            if (type == protocole.ERREUR) {
+                throw new IOException("partie interrompue, erreur " + erreur);
+            }
+            if (type != protocole.RESULTAT) continue;
+            if (suite != protocole.EN_COURS) return suite;
+            aMoi = tireur != numero;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    /**
+     * Essai de bout en bout sur la boucle locale : lance un serveur dans ce
+     * processus puis fait jouer des clients, par paires ou contre les
+     * ordinateurs du serveur, et vérifie que chaque partie va au bout sans
+     * erreur (au niveau 0, avec un seul gagnant par paire) en moins de
+     * DELAI_ESSAI secondes, puis que le serveur refuse les niveaux
+     * invalides. Sort avec le code 1 au premier échec.
+     * <p>Usage : clientDistant [clients [niveau]] ; niveau 0 fait jouer
+     * les clients deux à deux, leur nombre doit donc être pair.
+     */
+    public static void main(String[] args) throws Exception {
+        final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int niveau = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        if (clients <= 0 || niveau < 0 || niveau > protocole.NIVEAU_MAX
+                || (niveau == 0 && clients % 2 != 0)) {
+            System.err.println("Usage : clientDistant [clients [niveau]], niveau de 0 à "
+                    + protocole.NIVEAU_MAX + ", nombre de clients pair au niveau 0");
+            System.exit(2);
+        }
+        final serveur s = new serveur(0, 10, 10, placementFlotte.FLOTTE_STANDARD);
+        Thread boucle = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    s.lancer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "serveur");
+        boucle.start();
+        final InetSocketAddress adresse =
+                new InetSocketAddress("127.0.0.1", s.getPort());
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<Integer>> issues = new ArrayList<Future<Integer>>(clients);
+        long t0 = System.nanoTime();
+        long limite = t0 + TimeUnit.SECONDS.toNanos(DELAI_ESSAI);
+        for (int k = 0; k < clients; k++) {
+            final int code = k / 2;
+            final long graine = k;
+            issues.add(pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    clientDistant c = new clientDistant(adresse);
+                    try {
+                        c.rejoindre(code, niveau);
+                        return c.jouer(new SplittableRandom(graine));
+                    } finally {
+                        c.close();
+                    }
+                }
+            }));
+        }
+        String echec = null;
+        int[] suites = new int[clients];
+        for (int k = 0; k < clients && echec == null; k++) {
+            echec = attendre(issues.get(k), limite, "client " + k);
+            if (echec == null) suites[k] = issues.get(k).get();
+        }
+        int gagnees = 0;
+        for (int suite : suites) {
+            if (suite == protocole.GAGNE) gagnees++;
+        }
+        for (int k = 0; echec == null && niveau == 0 && k < clients; k += 2) {
+            if ((suites[k] == protocole.GAGNE) == (suites[k + 1] == protocole.GAGNE)) {
+                echec = "partie " + k / 2 + " : " + (suites[k] == protocole.GAGNE
+                        ? "deux gagnants" : "aucun gagnant");
+            }
+        }
+        double secondes = (System.nanoTime() - t0) / 1e9;
+        if (echec == null) {
+            Future<String> refus = pool.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return refuserNiveaux(adresse);
+                }
+            });
+            echec = attendre(refus, limite, "refus des niveaux invalides");
+            if (echec == null) echec = refus.get();
+        }
+        pool.shutdownNow();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        s.arreter();
+        boucle.join();
+        if (echec != null) {
+            System.err.println("échec : " + echec);
+            System.exit(1);
+        }
+        System.out.printf("%d parties finies (%d gagnées par les clients) en %.2f s%n",
+                niveau == 0 ? clients / 2 : clients, gagnees, secondes);
+    }
+
+    /**
+     * Attend f jusqu'à la limite (System.nanoTime).
+     * @return null si f s'est terminée normalement, sinon la raison de l'échec
+     */
+    private static String attendre(Future<?> f, long limite, String nom)
+            throws InterruptedException {
+        try {
+            f.get(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return null;
+        } catch (TimeoutException e) {
+            return nom + " : pas de réponse en " + DELAI_ESSAI + " s";
+        } catch (ExecutionException e) {
+            return nom + " : " + e.getCause();
+        }
+    }
+
+    /**
+     * Demande des parties de niveau -1 et NIVEAU_MAX + 1.
+     * @return null si le serveur les refuse par NIVEAU_INVALIDE, sinon la
+     *         raison de l'échec
+     */
+    private static String refuserNiveaux(InetSocketAddress adresse) throws IOException {
+        for (int niveau : new int[] {-1, protocole.NIVEAU_MAX + 1}) {
+            clientDistant c = new clientDistant(adresse);
+            try {
+                c.rejoindre(0, niveau);
+                return "niveau " + niveau + " accepté par le serveur";
+            } catch (IOException e) {
+                if (c.getErreur() != protocole.NIVEAU_INVALIDE) {
+                    return "niveau " + niveau + " : " + e.getMessage();
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,52 @@
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteur partagé entre threads, réparti en cellules par LongAdder pour
+ * que les incréments concurrents ne se disputent pas une même variable.
+ */
+public class compteur implements compteurMBean {
+
+    private final String nom;
+
+    private final LongAdder valeur = new LongAdder();
+
+    public compteur(String nom) {
+        this.nom = nom;
+    }
+
+    @Override
+    public String getNom() {
+        return nom;
+    }
+
+    public void incrementer() {
+        valeur.increment();
+    }
+
+    public void ajouter(long n) {
+        valeur.add(n);
+    }
+
+    @Override
+    public long getValeur() {
+        return valeur.sum();
+    }
+
+    @Override
+    public void reinitialiser() {
+        valeur.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-24s %d", nom, getValeur());
+    }
+
+    /**
+     * @return le compteur en objet JSON.
+     */
+    public String json() {
+        return "{\"nom\":\"" + nom + "\",\"valeur\":" + getValeur() + "}";
+    }
+}
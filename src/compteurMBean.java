@@ -0,0 +1,12 @@
+
+/**
+ * Vue JMX d'un compteur.
+ */
+public interface compteurMBean {
+
+    String getNom();
+
+    long getValeur();
+
+    void reinitialiser();
+}
@@ -0,0 +1,144 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Point d'entrée en ligne de commande, pour les traitements par lots et
+ * les serveurs sans écran.
+ * <p>Les commandes de jeu (partie, simulation, tournoi, serveur, journal)
+ * n'utilisent que le modèle (grille, jeu, joueur, ordinateur...) : aucune
+ * classe AWT ou Swing n'est chargée et la boite à outils graphique n'est
+ * jamais initialisée. Seule la commande apercu charge la vue (plateau,
+ * IHMAtlas), en mode headless, pour écrire une image du plateau.
+ * <p>Avec l'option -t, le temps écoulé entre le lancement de la JVM et
+ * main, puis la durée de la commande, sont écrits sur la sortie d'erreur.
+ */
+public class console {
+
+    private console() {
+    }
+
+    /**
+     * Usage : console [-t] commande [arguments...] ; console sans argument
+     * affiche les commandes.
+     */
+    public static void main(String[] args) throws Exception {
+        // Avant tout chargement d'AWT : apercu ne doit jamais chercher d'écran.
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        boolean temps = args.length > 0 && args[0].equals("-t");
+        if (temps) args = Arrays.copyOfRange(args, 1, args.length);
+        long t0 = System.nanoTime();
+        long avantMain = temps ? System.currentTimeMillis()
+                - ManagementFactory.getRuntimeMXBean().getStartTime() : 0;
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        String[] reste = Arrays.copyOfRange(args, 1, args.length);
+        switch (args[0]) {
+            case "partie" :
+                partie(reste);
+                break;
+            case "apercu" :
+                apercu(reste);
+                break;
+            case "simulation" :
+                simulateur.main(reste);
+                break;
+            case "tournoi" :
+                tournoi.main(reste);
+                break;
+            case "serveur" :
+                serveur.main(reste);
+                break;
+            case "journal" :
+                journalTirs.main(reste);
+                break;
+            default :
+                System.err.println("commande inconnue : " + args[0]);
+                usage();
+                System.exit(2);
+        }
+        if (temps) {
+            System.err.printf("démarrage %d ms, commande %.1f ms%n", avantMain,
+                    (System.nanoTime() - t0) / 1e6);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage : console [-t] commande [arguments...]");
+        System.out.println("  partie [-j base] [regles [niveau1 [niveau2 [graine]]]]");
+        System.out.println("  apercu fichier.png [regles [niveau1 [niveau2 [graine]]]]");
+        System.out.println("  simulation [-j base [-p partie] [-i intervalle]]");
+        System.out.println("             [parties [niveau1 [niveau2 [largeur [hauteur [graine [flotte]]]]]]]");
+        System.out.println("  tournoi [niveaux [marge [donnes_max [graine [regles]]]]]");
+        System.out.println("  serveur [port [regles [tick_ms]]]");
+        System.out.println("  journal base [tour]");
+        System.out.println("regles s'écrit par exemple 10x10:5,4,3,3,2 (voir regles.lire).");
+    }
+
+    /**
+     * Joue jusqu'au bout la partie de la graine donnée entre deux
+     * ordinateurs ; c'est la partie 0 d'une simulation de même graine.
+     * Avec journal non nul, ses tirs sont journalisés sous ce nom de base.
+     */
+    private static jeu jouer(String[] args, int premier, File journal)
+            throws IOException {
+        regles regle = args.length > premier ? regles.lire(args[premier]) : regles.STANDARD;
+        int niveau1 = args.length > premier + 1 ? Integer.parseInt(args[premier + 1]) : 2;
+        int niveau2 = args.length > premier + 2 ? Integer.parseInt(args[premier + 2]) : 2;
+        simulateur sim = new simulateur(regle, niveau1, niveau2);
+        if (args.length > premier + 3) sim.setGraine(Long.parseLong(args[premier + 3]));
+        jeu partie = sim.nouvellePartie(0);
+        journalTirs tirs = (journal != null) ? new journalTirs(journal) : null;
+        try {
+            partie.setJournal(tirs);
+            while (partie.enCours()) {
+                partie.nouveauTour();
+            }
+        } finally {
+            if (tirs != null) {
+                partie.setJournal(null);
+                tirs.close();
+            }
+        }
+        System.out.println("graine : " + sim.getGraine() + ", règles : " + regle);
+        System.out.println("vainqueur : joueur "
+                + (partie.getVainqueur() == partie.getJoueur1() ? 1 : 2)
+                + " en " + partie.getTours() + " tours ; tirs "
+                + partie.getJoueur2().getGrille().getTirs() + " / "
+                + partie.getJoueur1().getGrille().getTirs());
+        return partie;
+    }
+
+    private static void partie(String[] args) throws IOException {
+        File journal = null;
+        if (args.length > 1 && args[0].equals("-j")) {
+            journal = new File(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        jouer(args, 0, journal);
+        if (journal != null) {
+            System.out.println("tirs journalisés dans " + journalTirs.fichierTirs(journal));
+        }
+    }
+
+    /**
+     * Joue la partie puis écrit l'image de la grille visée par le joueur 1
+     * (voir plateau.ecrireApercu).
+     */
+    private static void apercu(String[] args) throws IOException {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        jeu partie = jouer(args, 1, null);
+        File fichier = new File(args[0]);
+        plateau.ecrireApercu(partie.getJoueur2().getGrille(), fichier);
+        System.out.println("aperçu écrit dans " + fichier);
+    }
+}
@@ -0,0 +1,324 @@
+
+import java.util.Arrays;
+
+/**
+ * Carte de densité de probabilité pour le ciblage de l'ordinateur.
+ * <p>Pour chaque case on tient le nombre de positions encore possibles des
+ * bateaux restants qui la recouvrent (pondéré par le nombre de bateaux de
+ * chaque longueur). Une position est impossible dès qu'elle recouvre une
+ * case ratée. Les compteurs sont mis à jour à chaque tir au lieu d'être
+ * recalculés : un raté ne retire que les positions qui le recouvraient,
+ * soit O(L²) cases touchées par longueur de bateau L.
+ * <p>Le maximum est entretenu dans un arbre de tournoi sur les cases non
+ * tirées : le choix du tir suivant en phase de recherche est donc en O(1),
+ * et chaque case modifiée coûte O(log n).
+ * <p>Tant que des touches ne sont pas attribuées à un bateau coulé, le tir
+ * est choisi autour d'elles (phase de destruction) parmi les positions
+ * possibles qui les recouvrent, les positions couvrant plusieurs touches
+ * comptant davantage.
+ */
+public class densite {
+
+    private final int largeur;
+
+    private final int hauteur;
+
+    /** Longueurs distinctes des bateaux restants. */
+    private final int[] longueurs;
+
+    /** Nombre de bateaux restants pour chaque longueur. */
+    private final int[] multiplicites;
+
+    /** Positions possibles recouvrant chaque case, par longueur. */
+    private final int[][] compte;
+
+    /** Somme des compte pondérés par les multiplicités. */
+    private final int[] score;
+
+    /** Cases qu'aucun bateau ne peut plus recouvrir (ratées). */
+    private final long[] bloque;
+
+    private final long[] tire;
+
+    /** Arbre de tournoi : arbre[1] est l'indice de la meilleure case. */
+    private final int[] arbre;
+
+    private final int feuilles;
+
+    /** Touches qui orientent encore la phase de destruction. */
+    private final int[] touches;
+
+    private int nbTouches;
+
+    /** Tampon de scores locaux de la phase de destruction. */
+    private final int[] local;
+
+    private final int[] candidats;
+
+    /** Poids ajouté par la touche en cours d'évaluation. */
+    private int apport;
+
+    public densite(int largeur, int hauteur, int[] flotte) {
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+        int n = largeur * hauteur;
+
+        int[] l = new int[flotte.length];
+        int[] m = new int[flotte.length];
+        int distinctes = 0;
+        for (int taille : flotte) {
+            int k = 0;
+            while (k < distinctes && l[k] != taille) k++;
+            if (k == distinctes) l[distinctes++] = taille;
+            m[k]++;
+        }
+        longueurs = Arrays.copyOf(l, distinctes);
+        multiplicites = Arrays.copyOf(m, distinctes);
+
+        compte = new int[distinctes][n];
+        score = new int[n];
+        bloque = new long[(n + 63) >>> 6];
+        tire = new long[(n + 63) >>> 6];
+        touches = new int[n];
+        local = new int[n];
+        candidats = new int[n];
+
+        for (int k = 0; k < distinctes; k++) {
+            int taille = longueurs[k];
+            for (int y = 0; y < hauteur; y++) {
+                for (int x = 0; x < largeur; x++) {
+                    int c = couvertures(x, largeur, taille)
+                          + (taille > 1 ? couvertures(y, hauteur, taille) : 0);
+                    compte[k][y * largeur + x] = c;
+                    score[y * largeur + x] += multiplicites[k] * c;
+                }
+            }
+        }
+
+        int f = 1;
+        while (f < n) f <<= 1;
+        feuilles = f;
+        arbre = new int[2 * f];
+        for (int i = 0; i < f; i++) arbre[f + i] = (i < n) ? i : -1;
+        for (int i = f - 1; i >= 1; i--) {
+            arbre[i] = meilleur(arbre[2 * i], arbre[2 * i + 1]);
+        }
+    }
+
+    /** Nombre de segments [s, s+taille) de [0, n) qui contiennent p. */
+    private static int couvertures(int p, int n, int taille) {
+        int c = Math.min(p, n - taille) - Math.max(0, p - taille + 1) + 1;
+        return Math.max(c, 0);
+    }
+
+    private static boolean lire(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private int valeur(int i) {
+        if (i < 0) return -2;
+        return lire(tire, i) ? -1 : score[i];
+    }
+
+    private int meilleur(int a, int b) {
+        return (valeur(b) > valeur(a)) ? b : a;
+    }
+
+    private void actualiser(int i) {
+        int noeud = (feuilles + i) >>> 1;
+        while (noeud >= 1) {
+            int m = meilleur(arbre[2 * noeud], arbre[2 * noeud + 1]);
+            if (arbre[noeud] == m && m != i) break;
+            arbre[noeud] = m;
+            noeud >>>= 1;
+        }
+    }
+
+    public boolean aEteTiree(int i) {
+        return lire(tire, i);
+    }
+
+    /**
+     * Enregistre le résultat d'un tir sur la case d'indice i.
+     * @param touche vrai si un bateau a été touché
+     */
+    public void noter(int i, boolean touche) {
+        if (lire(tire, i)) return;
+        tire[i >>> 6] |= 1L << i;
+        if (touche) {
+            touches[nbTouches++] = i;
+        } else {
+            retirerPositions(i);
+            bloque[i >>> 6] |= 1L << i;
+        }
+        actualiser(i);
+    }
+
+    /**
+     * Un bateau est coulé : il ne compte plus dans la flotte restante, et
+     * ses cases, qui ne peuvent plus recouvrir un autre bateau, sont
+     * bloquées comme des ratés et ne guident plus la phase de destruction.
+     * @param debut indice de sa première case
+     */
+    public void couler(int debut, int taille, boolean horizontal) {
+        retirerBateau(taille);
+        int pas = horizontal ? 1 : largeur;
+        for (int n = 0, i = debut; n < taille; n++, i += pas) {
+            if (lire(bloque, i)) continue;
+            retirerPositions(i);
+            bloque[i >>> 6] |= 1L << i;
+            actualiser(i);
+            for (int t = 0; t < nbTouches; t++) {
+                if (touches[t] == i) {
+                    touches[t] = touches[--nbTouches];
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Retire des scores le poids d'un bateau de cette longueur, puis
+     * reconstruit l'arbre de tournoi : toutes les cases peuvent changer.
+     */
+    private void retirerBateau(int taille) {
+        int k = 0;
+        while (k < longueurs.length && longueurs[k] != taille) k++;
+        if (k == longueurs.length || multiplicites[k] == 0) return;
+        multiplicites[k]--;
+        int[] positions = compte[k];
+        for (int i = 0; i < score.length; i++) score[i] -= positions[i];
+        for (int i = feuilles - 1; i >= 1; i--) {
+            arbre[i] = meilleur(arbre[2 * i], arbre[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Retire les positions encore possibles qui recouvrent la case i, qui
+     * vient d'être bloquée.
+     */
+    private void retirerPositions(int i) {
+        int x = i % largeur;
+        int y = i / largeur;
+        for (int k = 0; k < longueurs.length; k++) {
+            // Plus aucun bateau de cette longueur : ses comptes ne servent plus.
+            if (multiplicites[k] == 0) continue;
+            int taille = longueurs[k];
+            retirerSegment(k, x, y, taille, true);
+            if (taille > 1) retirerSegment(k, x, y, taille, false);
+        }
+    }
+
+    private void retirerSegment(int k, int x, int y, int taille,
+                                boolean horizontal) {
+        int p = horizontal ? x : y;
+        int n = horizontal ? largeur : hauteur;
+        int gauche = p;
+        while (gauche > 0 && gauche > p - taille + 1
+                && !lire(bloque, cellule(x, y, gauche - 1, horizontal))) {
+            gauche--;
+        }
+        int droite = p;
+        while (droite < n - 1 && droite < p + taille - 1
+                && !lire(bloque, cellule(x, y, droite + 1, horizontal))) {
+            droite++;
+        }
+        // Débuts possibles : s dans [gauche, droite - taille + 1]
+        int sMin = gauche;
+        int sMax = droite - taille + 1;
+        if (sMax < sMin) return;
+        int poids = multiplicites[k];
+        for (int q = sMin; q <= sMax + taille - 1; q++) {
+            int nb = Math.min(q, sMax) - Math.max(q - taille + 1, sMin) + 1;
+            int c = cellule(x, y, q, horizontal);
+            compte[k][c] -= nb;
+            score[c] -= poids * nb;
+            actualiser(c);
+        }
+    }
+
+    private int cellule(int x, int y, int q, boolean horizontal) {
+        return horizontal ? y * largeur + q : q * largeur + x;
+    }
+
+    /**
+     * @return l'indice de la case à viser, ou -1 s'il n'en reste aucune.
+     */
+    public int choisir() {
+        if (nbTouches > 0) {
+            int c = choisirAutourDesTouches();
+            if (c >= 0) return c;
+        }
+        int c = arbre[1];
+        return (c >= 0 && !lire(tire, c)) ? c : -1;
+    }
+
+    /**
+     * Phase de destruction : score local des cases non tirées appartenant à
+     * une position possible qui recouvre une touche. Les touches qui ne
+     * mènent plus à aucune case sont oubliées.
+     */
+    private int choisirAutourDesTouches() {
+        int nbCandidats = 0;
+        int garde = 0;
+        for (int t = 0; t < nbTouches; t++) {
+            int h = touches[t];
+            apport = 0;
+            for (int k = 0; k < longueurs.length; k++) {
+                if (multiplicites[k] == 0) continue;
+                int taille = longueurs[k];
+                nbCandidats = evaluer(h, taille, multiplicites[k], true,
+                                      nbCandidats);
+                if (taille > 1) {
+                    nbCandidats = evaluer(h, taille, multiplicites[k], false,
+                                          nbCandidats);
+                }
+            }
+            if (apport > 0) touches[garde++] = h;
+        }
+        nbTouches = garde;
+
+        int meilleure = -1;
+        int max = 0;
+        for (int c = 0; c < nbCandidats; c++) {
+            int i = candidats[c];
+            if (local[i] > max || (local[i] == max && i < meilleure)) {
+                max = local[i];
+                meilleure = i;
+            }
+        }
+        for (int c = 0; c < nbCandidats; c++) local[candidats[c]] = 0;
+        return meilleure;
+    }
+
+    /**
+     * Ajoute au score local les positions d'un bateau de longueur taille qui
+     * recouvrent la touche h sans recouvrir de case bloquée.
+     */
+    private int evaluer(int h, int taille, int poids, boolean horizontal,
+                        int nbCandidats) {
+        int x = h % largeur;
+        int y = h / largeur;
+        int p = horizontal ? x : y;
+        int n = horizontal ? largeur : hauteur;
+        for (int s = Math.max(0, p - taille + 1);
+             s <= p && s + taille <= n; s++) {
+            int touchees = 0;
+            boolean possible = true;
+            for (int q = s; q < s + taille && possible; q++) {
+                int c = cellule(x, y, q, horizontal);
+                if (lire(bloque, c)) possible = false;
+                else if (lire(tire, c)) touchees++;
+            }
+            if (!possible || touchees == taille) continue;
+            for (int q = s; q < s + taille; q++) {
+                int c = cellule(x, y, q, horizontal);
+                if (lire(tire, c)) continue;
+                if (local[c] == 0) candidats[nbCandidats++] = c;
+                local[c] += poids * touchees;
+                apport += poids * touchees;
+            }
+        }
+        return nbCandidats;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Observateur des changements d'une grille : appelé après chaque tir
+ * résolu et chaque segment de bateau posé, pour que l'affichage puisse ne
+ * redessiner que la case concernée.
+ */
+public interface ecouteurGrille {
+
+    void caseModifiee(int x, int y);
+
+    /**
+     * Appelé après caseModifiee quand le tir coule le bateau numéro k de
+     * la grille (voir grille.navireX...).
+     */
+    default void navireCoule(int k) {
+    }
+}
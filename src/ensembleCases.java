@@ -0,0 +1,96 @@
+
+import java.util.Arrays;
+
+/**
+ * Ensemble d'indices de cases (entiers positifs ou nuls) en table de
+ * hachage à adressage ouvert, pour les grilles trop grandes pour un
+ * ensemble de bits : la mémoire est proportionnelle au nombre de cases
+ * présentes, pas à la surface de la grille.
+ * <p>La table est agrandie dès qu'elle est à moitié pleine ; il n'y a
+ * pas de retrait d'élément, seulement effacer.
+ */
+public class ensembleCases {
+
+    /** Indice de case + 1, 0 pour une place libre. */
+    private int[] table;
+
+    private int taille;
+
+    public ensembleCases() {
+        this(16);
+    }
+
+    /**
+     * @param capacite nombre d'éléments prévu
+     */
+    public ensembleCases(int capacite) {
+        table = new int[Math.max(16, 4 * Integer.highestOneBit(Math.max(1, capacite)))];
+    }
+
+    static int hacher(int i) {
+        int h = i * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public boolean contient(int i) {
+        int masque = table.length - 1;
+        int j = hacher(i + 1) & masque;
+        int cle;
+        while ((cle = table[j]) != 0) {
+            if (cle == i + 1) return true;
+            j = (j + 1) & masque;
+        }
+        return false;
+    }
+
+    /**
+     * @return false si i était déjà présent
+     */
+    public boolean ajouter(int i) {
+        if (2 * (taille + 1) > table.length) agrandir();
+        int masque = table.length - 1;
+        int j = hacher(i + 1) & masque;
+        int cle;
+        while ((cle = table[j]) != 0) {
+            if (cle == i + 1) return false;
+            j = (j + 1) & masque;
+        }
+        table[j] = i + 1;
+        taille++;
+        return true;
+    }
+
+    private void agrandir() {
+        int[] ancienne = table;
+        table = new int[2 * ancienne.length];
+        int masque = table.length - 1;
+        for (int cle : ancienne) {
+            if (cle == 0) continue;
+            int j = hacher(cle) & masque;
+            while (table[j] != 0) j = (j + 1) & masque;
+            table[j] = cle;
+        }
+    }
+
+    public int taille() {
+        return taille;
+    }
+
+    public void effacer() {
+        Arrays.fill(table, 0);
+        taille = 0;
+    }
+
+    /**
+     * @return les éléments dans l'ordre croissant.
+     */
+    public int[] trier() {
+        int[] elements = new int[taille];
+        int n = 0;
+        for (int cle : table) {
+            if (cle != 0) elements[n++] = cle - 1;
+        }
+        Arrays.sort(elements);
+        return elements;
+    }
+}
@@ -0,0 +1,693 @@
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Etat d'un plateau sous forme compacte : trois ensembles de bits rangés
+ * ligne par ligne dans des <code>long[]</code> (cases occupées par un
+ * bateau, cases touchées, cases ratées). Aucun objet n'est alloué par
+ * case, un plateau de 1000x1000 tient dans 3 x 125 Ko.
+ * <p>La case (x;y) correspond au bit <code>y * largeur + x</code>.
+ * <p>Les bateaux posés par placer sont indexés : une table de hachage
+ * (taille proportionnelle au nombre de segments, pas à la grille) donne le
+ * bateau de chaque case occupée, et chaque bateau tient le compte de ses
+ * segments intacts. Un tir sait ainsi en temps constant s'il coule un
+ * bateau, et la grille si toute la flotte est coulée.
+ * <p>Une grille creuse (voir creer) remplace les trois ensembles de bits
+ * par des ensembleCases : sur un très grand plateau peu rempli, elle
+ * n'occupe que de l'ordre de 8 octets par segment de bateau et par tir.
+ * Quand les ratés deviennent trop nombreux pour que la table soit plus
+ * petite qu'un ensemble de bits, ils repassent en ensemble de bits.
+ */
+public class grille {
+
+    /** Résultat d'un tir : case vide. */
+    public static final int RATE = 0;
+    /** Résultat d'un tir : segment de bateau. */
+    public static final int TOUCHE = 1;
+    /** Résultat d'un tir : la case avait déjà été visée. */
+    public static final int DEJA_TIRE = 2;
+    /** Résultat d'un tir : coordonnées en dehors du plateau. */
+    public static final int HORS_GRILLE = -1;
+
+    /**
+     * Surface au-delà de laquelle creer choisit une grille creuse : les
+     * ensembles de bits pleins y prendraient plus de 6 Mo.
+     */
+    public static final long SEUIL_CREUSE = 1L << 24;
+
+    /** Format d'un ensemble écrit par ecrireTirs : ensemble de bits. */
+    static final byte TIRS_BITS = 0;
+
+    /** Format d'un ensemble écrit par ecrireTirs : liste d'indices. */
+    static final byte TIRS_LISTE = 1;
+
+    private final int largeur;
+
+    private final int hauteur;
+
+    /** Nombre de long d'un ensemble de bits de la grille. */
+    private final int mots;
+
+    /** Ensembles de bits, nuls pour une grille creuse. */
+    private final long[] occupe;
+
+    private final long[] touche;
+
+    /** Ratés, en ensemble de bits même sur une grille creuse une fois denses. */
+    private long[] rate;
+
+    /** Ensembles de cases d'une grille creuse, nuls sinon. */
+    private final ensembleCases occupeCreuse;
+
+    private final ensembleCases toucheCreuse;
+
+    private ensembleCases rateCreuse;
+
+    /** Occupation ligne par ligne, seulement si largeur <= 64. */
+    private final long[] lignes;
+
+    /** Occupation colonne par colonne, seulement si hauteur <= 64. */
+    private final long[] colonnes;
+
+    private int casesOccupees;
+
+    private int casesTouchees;
+
+    private int tirs;
+
+    private ecouteurGrille ecouteur;
+
+    /** Bateaux posés par placer : x, y, taille, 1 si horizontal. */
+    private int[] navires = new int[4 * 8];
+
+    private int nbNavires;
+
+    /** Segments intacts de chaque bateau. */
+    private int[] restants = new int[8];
+
+    private int naviresCoules;
+
+    /** Bateau coulé par le dernier tir, ou -1. */
+    private int dernierCoule = -1;
+
+    /**
+     * Table des cases de bateau, adressage ouvert : indice de case + 1
+     * (0 pour une place libre), et numéro du bateau à la même place.
+     */
+    private int[] casesNavires = new int[32];
+
+    private int[] numerosNavires = new int[32];
+
+    public grille(int largeur, int hauteur) {
+        this(largeur, hauteur, false);
+    }
+
+    /**
+     * @param creuse vrai pour ranger bateaux et tirs dans des tables de
+     *        hachage plutôt que dans des ensembles de bits
+     */
+    public grille(int largeur, int hauteur, boolean creuse) {
+        if (largeur <= 0 || hauteur <= 0
+                || (long) largeur * hauteur > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("dimensions invalides : "
+                    + largeur + " x " + hauteur);
+        }
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+        mots = (int) (((long) largeur * hauteur + 63) >>> 6);
+        if (creuse) {
+            occupe = touche = null;
+            rate = null;
+            occupeCreuse = new ensembleCases();
+            toucheCreuse = new ensembleCases();
+            rateCreuse = new ensembleCases();
+        } else {
+            occupe = new long[mots];
+            touche = new long[mots];
+            rate = new long[mots];
+            occupeCreuse = toucheCreuse = null;
+            rateCreuse = null;
+        }
+        lignes = (largeur <= 64) ? new long[hauteur] : null;
+        colonnes = (hauteur <= 64) ? new long[largeur] : null;
+    }
+
+    /**
+     * Grille creuse si sa surface dépasse SEUIL_CREUSE et que les bateaux
+     * en couvrent moins d'un soixante-quatrième, pleine sinon.
+     * @param casesBateaux nombre de segments prévus, 0 s'il est inconnu
+     */
+    public static grille creer(int largeur, int hauteur, long casesBateaux) {
+        return new grille(largeur, hauteur,
+                convientCreuse((long) largeur * hauteur, casesBateaux));
+    }
+
+    static boolean convientCreuse(long surface, long casesBateaux) {
+        return surface > SEUIL_CREUSE && 64 * casesBateaux < surface;
+    }
+
+    public boolean estCreuse() {
+        return occupe == null;
+    }
+
+    /**
+     * Fixe l'unique observateur de la grille (null pour aucun).
+     */
+    public void setEcouteur(ecouteurGrille ecouteur) {
+        this.ecouteur = ecouteur;
+    }
+
+    public int getLargeur() {
+        return largeur;
+    }
+
+    public int getHauteur() {
+        return hauteur;
+    }
+
+    public boolean contient(int x, int y) {
+        return x >= 0 && y >= 0 && x < largeur && y < hauteur;
+    }
+
+    private int indice(int x, int y) {
+        return y * largeur + x;
+    }
+
+    private static boolean lire(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private boolean occupee(int i) {
+        return (occupe != null) ? lire(occupe, i) : occupeCreuse.contient(i);
+    }
+
+    private boolean touchee(int i) {
+        return (touche != null) ? lire(touche, i) : toucheCreuse.contient(i);
+    }
+
+    public boolean estOccupee(int x, int y) {
+        return occupee(indice(x, y));
+    }
+
+    public boolean estTouchee(int x, int y) {
+        return touchee(indice(x, y));
+    }
+
+    private boolean ratee(int i) {
+        return (rate != null) ? lire(rate, i) : rateCreuse.contient(i);
+    }
+
+    public boolean estRatee(int x, int y) {
+        return ratee(indice(x, y));
+    }
+
+    public boolean aEteTiree(int x, int y) {
+        return aEteTiree(indice(x, y));
+    }
+
+    /**
+     * Même test que aEteTiree(x, y), la case étant donnée par son indice
+     * y * largeur + x.
+     */
+    public boolean aEteTiree(int i) {
+        if (touche == null) return toucheCreuse.contient(i) || ratee(i);
+        return ((touche[i >>> 6] | rate[i >>> 6]) & (1L << i)) != 0;
+    }
+
+    /**
+     * Première case jamais visée d'une plage d'indices. Les ensembles de
+     * bits sont lus 64 cases à la fois ; sur une grille creuse, où les
+     * tirs couvrent peu de cases, la réponse vient en quelques sondages.
+     * @return l'indice de la première case libre de [debut, fin), -1 si
+     *         toutes ont été visées
+     */
+    public int suivanteLibre(int debut, int fin) {
+        if (debut >= fin) return -1;
+        if (rate == null) {
+            for (int i = debut; i < fin; i++) {
+                if (!toucheCreuse.contient(i) && !rateCreuse.contient(i)) return i;
+            }
+            return -1;
+        }
+        int m = debut >>> 6;
+        int dernier = (fin - 1) >>> 6;
+        long libres = ~motTire(m) & (-1L << debut);
+        while (true) {
+            if (m == dernier) libres &= -1L >>> (63 - ((fin - 1) & 63));
+            while (libres != 0) {
+                int i = (m << 6) + Long.numberOfTrailingZeros(libres);
+                if (touche != null || !toucheCreuse.contient(i)) return i;
+                libres &= libres - 1;
+            }
+            if (m == dernier) return -1;
+            libres = ~motTire(++m);
+        }
+    }
+
+    /** Cases visées du mot m des ensembles de bits (touches creuses exclues). */
+    private long motTire(int m) {
+        return (touche != null) ? touche[m] | rate[m] : rate[m];
+    }
+
+    /**
+     * Marque la case (x;y) comme occupée par un segment de bateau.
+     * @return false si la case l'était déjà
+     */
+    public boolean occuper(int x, int y) {
+        int i = indice(x, y);
+        if (occupe == null) {
+            if (!occupeCreuse.ajouter(i)) return false;
+        } else {
+            long masque = 1L << i;
+            if ((occupe[i >>> 6] & masque) != 0) return false;
+            occupe[i >>> 6] |= masque;
+        }
+        if (lignes != null) lignes[y] |= 1L << x;
+        if (colonnes != null) colonnes[x] |= 1L << y;
+        casesOccupees++;
+        if (ecouteur != null) ecouteur.caseModifiee(x, y);
+        return true;
+    }
+
+    /**
+     * Teste si un bateau de longueur taille peut être posé à partir de
+     * (x;y) : il doit tenir dans la grille sans chevaucher un autre bateau.
+     * Sur les grilles d'au plus 64 cases de côté le test se fait en un seul
+     * masque de ligne ou de colonne.
+     */
+    public boolean peutPlacer(int x, int y, int taille, boolean horizontal) {
+        if (taille <= 0 || !contient(x, y)) return false;
+        if (horizontal) {
+            if (x + taille > largeur) return false;
+            if (lignes != null) {
+                return (lignes[y] & (masqueLongueur(taille) << x)) == 0;
+            }
+            return plageLibre(indice(x, y), taille);
+        }
+        if (y + taille > hauteur) return false;
+        if (colonnes != null) {
+            return (colonnes[x] & (masqueLongueur(taille) << y)) == 0;
+        }
+        for (int j = y; j < y + taille; j++) {
+            if (estOccupee(x, j)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pose un bateau après avoir vérifié qu'il rentre.
+     * @return false si le placement est impossible (rien n'est modifié)
+     */
+    public boolean placer(int x, int y, int taille, boolean horizontal) {
+        if (!peutPlacer(x, y, taille, horizontal)) return false;
+        for (int k = 0; k < taille; k++) {
+            if (horizontal) occuper(x + k, y);
+            else occuper(x, y + k);
+        }
+        if (4 * nbNavires == navires.length) {
+            navires = Arrays.copyOf(navires, 2 * navires.length);
+        }
+        navires[4 * nbNavires] = x;
+        navires[4 * nbNavires + 1] = y;
+        navires[4 * nbNavires + 2] = taille;
+        navires[4 * nbNavires + 3] = horizontal ? 1 : 0;
+        if (nbNavires == restants.length) {
+            restants = Arrays.copyOf(restants, 2 * nbNavires);
+        }
+        restants[nbNavires] = taille;
+        int pas = horizontal ? 1 : largeur;
+        int i = indice(x, y);
+        for (int k = 0; k < taille; k++, i += pas) indexer(i, nbNavires);
+        nbNavires++;
+        return true;
+    }
+
+    private static int hacher(int i) {
+        int h = i * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Range la case i du bateau k dans la table, agrandie à moitié pleine. */
+    private void indexer(int i, int k) {
+        if (2 * (casesOccupees + 1) > casesNavires.length) {
+            int[] anciennes = casesNavires;
+            int[] anciensNumeros = numerosNavires;
+            casesNavires = new int[2 * anciennes.length];
+            numerosNavires = new int[2 * anciennes.length];
+            for (int j = 0; j < anciennes.length; j++) {
+                if (anciennes[j] != 0) ranger(anciennes[j], anciensNumeros[j]);
+            }
+        }
+        ranger(i + 1, k);
+    }
+
+    private void ranger(int cle, int k) {
+        int masque = casesNavires.length - 1;
+        int j = hacher(cle) & masque;
+        while (casesNavires[j] != 0) j = (j + 1) & masque;
+        casesNavires[j] = cle;
+        numerosNavires[j] = k;
+    }
+
+    /**
+     * @return le numéro du bateau posé par placer sur la case d'indice
+     *         y * largeur + x, ou -1.
+     */
+    public int navireEn(int i) {
+        int masque = casesNavires.length - 1;
+        int j = hacher(i + 1) & masque;
+        int cle;
+        while ((cle = casesNavires[j]) != 0) {
+            if (cle == i + 1) return numerosNavires[j];
+            j = (j + 1) & masque;
+        }
+        return -1;
+    }
+
+    public int navireEn(int x, int y) {
+        return contient(x, y) ? navireEn(indice(x, y)) : -1;
+    }
+
+    /** Masque des n bits de poids faible (1 <= n <= 64). */
+    static long masqueLongueur(int n) {
+        return (n >= 64) ? -1L : (1L << n) - 1;
+    }
+
+    /** Vrai si les bits debut..debut+n-1 de occupe sont tous à zéro. */
+    private boolean plageLibre(int debut, int n) {
+        int i = debut;
+        int fin = debut + n;
+        if (occupe == null) {
+            for (; i < fin; i++) {
+                if (occupeCreuse.contient(i)) return false;
+            }
+            return true;
+        }
+        while (i < fin) {
+            int decalage = i & 63;
+            int nb = Math.min(64 - decalage, fin - i);
+            if ((occupe[i >>> 6] & (masqueLongueur(nb) << decalage)) != 0) {
+                return false;
+            }
+            i += nb;
+        }
+        return true;
+    }
+
+    /**
+     * Résout un tir en (x;y) par de simples tests de bits.
+     * @return RATE, TOUCHE, DEJA_TIRE ou HORS_GRILLE
+     */
+    public int tirer(int x, int y) {
+        if (!contient(x, y)) return HORS_GRILLE;
+        int i = indice(x, y);
+        int resultat;
+        if (touche == null) {
+            if (toucheCreuse.contient(i) || ratee(i)) return DEJA_TIRE;
+            if (occupeCreuse.contient(i)) {
+                toucheCreuse.ajouter(i);
+                resultat = TOUCHE;
+            } else {
+                noterRate(i);
+                resultat = RATE;
+            }
+        } else {
+            int mot = i >>> 6;
+            long masque = 1L << i;
+            if (((touche[mot] | rate[mot]) & masque) != 0) return DEJA_TIRE;
+            if ((occupe[mot] & masque) != 0) {
+                touche[mot] |= masque;
+                resultat = TOUCHE;
+            } else {
+                rate[mot] |= masque;
+                resultat = RATE;
+            }
+        }
+        tirs++;
+        dernierCoule = -1;
+        if (resultat == TOUCHE) {
+            casesTouchees++;
+            int k = navireEn(i);
+            if (k >= 0 && --restants[k] == 0) {
+                naviresCoules++;
+                dernierCoule = k;
+            }
+        }
+        if (ecouteur != null) {
+            ecouteur.caseModifiee(x, y);
+            if (dernierCoule >= 0) ecouteur.navireCoule(dernierCoule);
+        }
+        return resultat;
+    }
+
+    /**
+     * @return le nombre de segments de bateau pas encore touchés.
+     */
+    public int casesRestantes() {
+        return casesOccupees - casesTouchees;
+    }
+
+    /**
+     * @return vrai si tous les segments de bateau sont touchés.
+     */
+    public boolean tousCoules() {
+        return casesTouchees == casesOccupees;
+    }
+
+    /**
+     * @return le numéro du bateau coulé par le dernier tir résolu, -1 si
+     *         ce tir n'a rien coulé.
+     */
+    public int dernierCoule() {
+        return dernierCoule;
+    }
+
+    /**
+     * @return le nombre de bateaux posés par placer et entièrement touchés.
+     */
+    public int naviresCoules() {
+        return naviresCoules;
+    }
+
+    public int getCasesOccupees() {
+        return casesOccupees;
+    }
+
+    /**
+     * @return le nombre de tirs reçus, sans compter ceux qui visaient une
+     *         case déjà touchée ou hors de la grille.
+     */
+    public int getTirs() {
+        return tirs;
+    }
+
+    /**
+     * @return le nombre de bateaux posés par placer.
+     */
+    public int nombreNavires() {
+        return nbNavires;
+    }
+
+    public int navireX(int k) {
+        return navires[4 * k];
+    }
+
+    public int navireY(int k) {
+        return navires[4 * k + 1];
+    }
+
+    public int navireTaille(int k) {
+        return navires[4 * k + 2];
+    }
+
+    public boolean navireHorizontal(int k) {
+        return navires[4 * k + 3] != 0;
+    }
+
+    /**
+     * @return le nombre de segments du bateau k pas encore touchés.
+     */
+    public int navireRestant(int k) {
+        return restants[k];
+    }
+
+    public boolean navireCoule(int k) {
+        return restants[k] == 0;
+    }
+
+    /**
+     * @return le nombre d'octets écrits par ecrireTirs : chacun des deux
+     *         ensembles (touches, ratés) prend la plus courte de ses deux
+     *         formes, si bien qu'une grille peu visée coûte quelques octets
+     *         par tir quelle que soit sa surface.
+     */
+    int tailleTirs() {
+        return tailleEnsemble(casesTouchees) + tailleEnsemble(tirs - casesTouchees);
+    }
+
+    private int tailleEnsemble(int n) {
+        return 1 + (enListe(n) ? 4 + 4 * n : 8 * mots);
+    }
+
+    /** Vrai si n indices tiennent en moins de place qu'un ensemble de bits. */
+    private boolean enListe(int n) {
+        return 4L * n + 4 < 8L * mots;
+    }
+
+    /**
+     * Range un raté d'une grille creuse ; passé un raté par mot d'ensemble
+     * de bits, la table (au moins 8 octets par raté) coûterait plus que
+     * l'ensemble de bits, qui la remplace.
+     */
+    private void noterRate(int i) {
+        if (rate != null) {
+            rate[i >>> 6] |= 1L << i;
+            return;
+        }
+        rateCreuse.ajouter(i);
+        if (rateCreuse.taille() > mots) {
+            rate = new long[mots];
+            for (int j : rateCreuse.trier()) rate[j >>> 6] |= 1L << j;
+            rateCreuse = null;
+        }
+    }
+
+    /**
+     * Ecrit les touches puis les ratés, chacun précédé d'un octet de
+     * format : TIRS_BITS suivi de l'ensemble de bits mot par mot, ou
+     * TIRS_LISTE suivi du nombre de cases et de leurs indices croissants.
+     */
+    void ecrireTirs(ByteBuffer tampon) {
+        ecrireEnsemble(touche, toucheCreuse, casesTouchees, tampon);
+        ecrireEnsemble(rate, rateCreuse, tirs - casesTouchees, tampon);
+    }
+
+    /**
+     * @param bits ensemble de bits, ou null pour écrire creux
+     * @param n nombre de cases de l'ensemble
+     */
+    private void ecrireEnsemble(long[] bits, ensembleCases creux, int n,
+                                ByteBuffer tampon) {
+        if (enListe(n)) {
+            tampon.put(TIRS_LISTE);
+            tampon.putInt(n);
+            if (bits == null) {
+                for (int i : creux.trier()) tampon.putInt(i);
+                return;
+            }
+            for (int m = 0; m < mots; m++) {
+                for (long mot = bits[m]; mot != 0; mot &= mot - 1) {
+                    tampon.putInt((m << 6) + Long.numberOfTrailingZeros(mot));
+                }
+            }
+            return;
+        }
+        tampon.put(TIRS_BITS);
+        if (bits == null) {
+            ecrireMots(creux.trier(), tampon);
+        } else {
+            for (long mot : bits) tampon.putLong(mot);
+        }
+    }
+
+    /** Ecrit en ensemble de bits les indices triés d'une grille creuse. */
+    private void ecrireMots(int[] indices, ByteBuffer tampon) {
+        int k = 0;
+        for (int m = 0; m < mots; m++) {
+            long mot = 0;
+            while (k < indices.length && indices[k] >>> 6 == m) {
+                mot |= 1L << indices[k++];
+            }
+            tampon.putLong(mot);
+        }
+    }
+
+    /**
+     * Relit les touches et ratés écrits par ecrireTirs ; les bateaux doivent
+     * déjà être posés. Une touche hors des bateaux ou un raté sur un bateau
+     * est ignoré.
+     * @param bitsSeuls vrai pour l'ancien format : deux ensembles de bits,
+     *        sans octet de format
+     * @throws IllegalArgumentException si le format est inconnu ou si une
+     *         case sort de la grille
+     */
+    void lireTirs(ByteBuffer tampon, boolean bitsSeuls) {
+        casesTouchees = 0;
+        tirs = 0;
+        if (touche == null) {
+            toucheCreuse.effacer();
+            rate = null;
+            rateCreuse = new ensembleCases();
+        } else {
+            Arrays.fill(touche, 0);
+            Arrays.fill(rate, 0);
+        }
+        lireEnsemble(tampon, bitsSeuls ? TIRS_BITS : tampon.get(), true);
+        lireEnsemble(tampon, bitsSeuls ? TIRS_BITS : tampon.get(), false);
+        naviresCoules = 0;
+        dernierCoule = -1;
+        for (int k = 0; k < nbNavires; k++) {
+            int pas = navireHorizontal(k) ? 1 : largeur;
+            int i = indice(navireX(k), navireY(k));
+            restants[k] = 0;
+            for (int n = 0; n < navireTaille(k); n++, i += pas) {
+                if (!touchee(i)) restants[k]++;
+            }
+            if (restants[k] == 0) naviresCoules++;
+        }
+    }
+
+    private void lireEnsemble(ByteBuffer tampon, int format, boolean touches) {
+        if (format == TIRS_LISTE) {
+            int n = tampon.getInt();
+            if (n < 0 || n > tampon.remaining() / 4) {
+                throw new IllegalArgumentException("liste de tirs invalide : " + n);
+            }
+            int surface = largeur * hauteur;
+            for (int k = 0; k < n; k++) {
+                int i = tampon.getInt();
+                if (i < 0 || i >= surface) {
+                    throw new IllegalArgumentException("tir hors de la grille : " + i);
+                }
+                noterLu(i, touches);
+            }
+        } else if (format != TIRS_BITS) {
+            throw new IllegalArgumentException("format de tirs inconnu : " + format);
+        } else if (touche != null) {
+            for (int m = 0; m < mots; m++) {
+                long mot = tampon.getLong();
+                long[] dest = touches ? touche : rate;
+                dest[m] = touches ? mot & occupe[m] : mot & ~occupe[m];
+                int n = Long.bitCount(dest[m]);
+                tirs += n;
+                if (touches) casesTouchees += n;
+            }
+        } else {
+            for (int m = 0; m < mots; m++) {
+                for (long mot = tampon.getLong(); mot != 0; mot &= mot - 1) {
+                    noterLu((m << 6) + Long.numberOfTrailingZeros(mot), touches);
+                }
+            }
+        }
+    }
+
+    /** Range un tir relu, s'il est cohérent avec les bateaux posés. */
+    private void noterLu(int i, boolean touches) {
+        boolean occupee = (touche != null) ? lire(occupe, i) : occupeCreuse.contient(i);
+        if (occupee != touches) return;
+        if (touches) {
+            if (touche != null) {
+                if (lire(touche, i)) return;
+                touche[i >>> 6] |= 1L << i;
+            } else if (!toucheCreuse.ajouter(i)) {
+                return;
+            }
+            casesTouchees++;
+        } else {
+            if (ratee(i)) return;
+            noterRate(i);
+        }
+        tirs++;
+    }
+}
@@ -0,0 +1,175 @@
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de durées à précision relative constante, dans l'esprit de
+ * HdrHistogram : les valeurs sont rangées dans des cases dont la largeur
+ * vaut 1/64 de leur ordre de grandeur, soit moins de 1,6 % d'erreur sur
+ * les quantiles, de la nanoseconde à plusieurs siècles.
+ * <p>Les cases sont réparties en bandes, une par groupe de threads, pour
+ * que des threads qui notent en même temps n'écrivent pas dans les mêmes
+ * lignes de cache ; les bandes ne sont additionnées qu'à la lecture.
+ * Une bande n'est allouée qu'à la première valeur notée par un thread
+ * qui y écrit : un histogramme jamais utilisé (mesures inactives) ne
+ * coûte que son tableau de références.
+ */
+public class histogramme implements histogrammeMBean {
+
+    /** Cases par ordre de grandeur (6 bits de mantisse). */
+    private static final int SOUS_CASES = 64;
+
+    private static final int CASES = SOUS_CASES * (64 - 6 + 1);
+
+    private static final int BANDES = bandes();
+
+    private final String nom;
+
+    private final AtomicReferenceArray<AtomicLongArray> bandesCases =
+            new AtomicReferenceArray<AtomicLongArray>(BANDES);
+
+    private final LongAdder nombre = new LongAdder();
+
+    private final LongAdder somme = new LongAdder();
+
+    public histogramme(String nom) {
+        this.nom = nom;
+    }
+
+    /** Puissance de deux au moins égale au nombre de processeurs. */
+    private static int bandes() {
+        int n = Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+    }
+
+    @Override
+    public String getNom() {
+        return nom;
+    }
+
+    /**
+     * Case de la valeur v : v elle-même sous 2 * SOUS_CASES, puis SOUS_CASES
+     * cases par puissance de deux.
+     */
+    static int indice(long v) {
+        if (v < 2 * SOUS_CASES) return (int) Math.max(0, v);
+        int decalage = 63 - Long.numberOfLeadingZeros(v) - 6;
+        return SOUS_CASES * (decalage + 1) + (int) (v >>> decalage) - SOUS_CASES;
+    }
+
+    /** Plus grande valeur rangée dans la case i. */
+    static long borne(int i) {
+        if (i < 2 * SOUS_CASES) return i;
+        int decalage = i / SOUS_CASES - 1;
+        long mantisse = SOUS_CASES + i % SOUS_CASES;
+        long b = ((mantisse + 1) << decalage) - 1;
+        return b < 0 ? Long.MAX_VALUE : b;
+    }
+
+    /**
+     * Note une valeur, en général une durée en nanosecondes.
+     */
+    public void noter(long v) {
+        int bande = (int) Thread.currentThread().getId() & (BANDES - 1);
+        AtomicLongArray cases = bandesCases.get(bande);
+        if (cases == null) {
+            bandesCases.compareAndSet(bande, null, new AtomicLongArray(CASES));
+            cases = bandesCases.get(bande);
+        }
+        cases.incrementAndGet(indice(v));
+        nombre.increment();
+        somme.add(v);
+    }
+
+    @Override
+    public long getNombre() {
+        return nombre.sum();
+    }
+
+    @Override
+    public double getMoyenne() {
+        long n = nombre.sum();
+        return n == 0 ? 0 : (double) somme.sum() / n;
+    }
+
+    /**
+     * @param q quantile entre 0 et 1
+     * @return la borne supérieure de la case du quantile q, 0 si
+     *         l'histogramme est vide.
+     */
+    public long quantile(double q) {
+        long[] cases = cases();
+        long total = 0;
+        for (long c : cases) total += c;
+        if (total == 0) return 0;
+        long rang = Math.max(1, (long) Math.ceil(q * total));
+        long cumul = 0;
+        for (int i = 0; i < CASES; i++) {
+            cumul += cases[i];
+            if (cumul >= rang) return borne(i);
+        }
+        return borne(CASES - 1);
+    }
+
+    @Override
+    public long getP50() {
+        return quantile(0.5);
+    }
+
+    @Override
+    public long getP99() {
+        return quantile(0.99);
+    }
+
+    @Override
+    public long getP999() {
+        return quantile(0.999);
+    }
+
+    @Override
+    public long getMax() {
+        return quantile(1);
+    }
+
+    /** Somme des bandes, case par case. */
+    private long[] cases() {
+        long[] cases = new long[CASES];
+        for (int b = 0; b < BANDES; b++) {
+            AtomicLongArray bande = bandesCases.get(b);
+            if (bande == null) continue;
+            for (int i = 0; i < CASES; i++) cases[i] += bande.get(i);
+        }
+        return cases;
+    }
+
+    @Override
+    public void reinitialiser() {
+        for (int b = 0; b < BANDES; b++) {
+            AtomicLongArray bande = bandesCases.get(b);
+            if (bande == null) continue;
+            for (int i = 0; i < CASES; i++) bande.set(i, 0);
+        }
+        nombre.reset();
+        somme.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-24s n=%d moy=%.0f p50=%d p99=%d p999=%d max=%d",
+                nom, getNombre(), getMoyenne(), getP50(), getP99(), getP999(),
+                getMax());
+    }
+
+    /**
+     * @return l'histogramme en objet JSON, durées en nanosecondes.
+     */
+    public String json() {
+        return String.format(Locale.ROOT,
+                "{\"nom\":\"%s\",\"n\":%d,\"moyenne\":%.1f,\"p50\":%d,"
+                + "\"p99\":%d,\"p999\":%d,\"max\":%d}",
+                nom, getNombre(), getMoyenne(), getP50(), getP99(), getP999(),
+                getMax());
+    }
+}
@@ -0,0 +1,22 @@
+
+/**
+ * Vue JMX d'un histogramme : durées en nanosecondes.
+ */
+public interface histogrammeMBean {
+
+    String getNom();
+
+    long getNombre();
+
+    double getMoyenne();
+
+    long getP50();
+
+    long getP99();
+
+    long getP999();
+
+    long getMax();
+
+    void reinitialiser();
+}
@@ -1,15 +1,164 @@
 public class jeu {
 
+    /** Résultat de jouer(tireur, x, y) : ce n'est pas le tour du tireur. */
+    public static final int PAS_SON_TOUR = -2;
+
     private joueur joueur1;
 
     private joueur joueur2;
 
     private boolean inProgess;
 
+    private boolean tourJoueur1 = true;
+
+    private joueur vainqueur;
+
+    private int tours;
+
+    /** Graine du générateur de la partie, conservée pour la rejouer. */
+    private long graine;
+
+    /** Journal des tirs, ou null. */
+    private journalTirs journal;
+
     public jeu() {
     }
 
+    public jeu(joueur joueur1, joueur joueur2) {
+        this.joueur1 = joueur1;
+        this.joueur2 = joueur2;
+        inProgess = true;
+        joueur1.joueurIsPlaying = true;
+        joueur2.joueurIsPlaying = false;
+    }
+
+    /**
+     * Fait jouer le joueur dont c'est le tour, s'il sait choisir sa cible
+     * seul (ordinateur). Un joueur humain joue par jouer(x, y).
+     */
     public void nouveauTour() {
+        if (!inProgess) return;
+        joueur tireur = tourJoueur1 ? joueur1 : joueur2;
+        joueur cible = tourJoueur1 ? joueur2 : joueur1;
+        int indice = tireur.choisirCible(cible);
+        if (indice < 0) return;
+        int largeur = cible.getGrille().getLargeur();
+        jouer(indice % largeur, indice / largeur);
+    }
+
+    /**
+     * Le joueur dont c'est le tour tire en (x;y) sur son adversaire.
+     * @return le résultat du tir (grille.RATE, grille.TOUCHE...)
+     */
+    public int jouer(int x, int y) {
+        if (!mesures.ACTIF) return resoudre(x, y);
+        long t0 = System.nanoTime();
+        int resultat = resoudre(x, y);
+        mesures.noterTir(resultat, System.nanoTime() - t0);
+        return resultat;
+    }
+
+    private int resoudre(int x, int y) {
+        if (!inProgess) return grille.HORS_GRILLE;
+        joueur tireur = tourJoueur1 ? joueur1 : joueur2;
+        joueur cible = tourJoueur1 ? joueur2 : joueur1;
+        int resultat = tireur.tirerSur(x, y, cible);
+        if (journal != null) journal.noter(this, x, y, resultat);
+        if (resultat == grille.HORS_GRILLE || resultat == grille.DEJA_TIRE) {
+            return resultat;
+        }
+        tours++;
+        tireur.noterResultat(x, y, resultat);
+        grille touchee = cible.getGrille();
+        int coule = touchee.dernierCoule();
+        if (coule >= 0) {
+            tireur.noterCoule(touchee.navireX(coule), touchee.navireY(coule),
+                    touchee.navireTaille(coule), touchee.navireHorizontal(coule));
+        }
+        if (touchee.tousCoules()) {
+            inProgess = false;
+            vainqueur = tireur;
+            tireur.joueurIsPlaying = false;
+        } else {
+            tourJoueur1 = !tourJoueur1;
+            tireur.joueurIsPlaying = false;
+            cible.joueurIsPlaying = true;
+        }
+        if (journal != null) journal.tourJoue(this);
+        return resultat;
+    }
+
+    /**
+     * Comme jouer(x, y), mais seulement si c'est bien le tour de tireur.
+     * @return le résultat du tir, ou PAS_SON_TOUR
+     */
+    public int jouer(joueur tireur, int x, int y) {
+        if (inProgess && tireur != (tourJoueur1 ? joueur1 : joueur2)) {
+            if (mesures.ACTIF) mesures.REFUSES.incrementer();
+            return PAS_SON_TOUR;
+        }
+        return jouer(x, y);
+    }
+
+    /**
+     * Remet la partie dans un état relu (voir sauvegarde).
+     */
+    void restaurer(boolean enCours, boolean auJoueur1, int nbTours) {
+        inProgess = enCours;
+        tourJoueur1 = auJoueur1;
+        tours = nbTours;
+        joueur1.joueurIsPlaying = enCours && auJoueur1;
+        joueur2.joueurIsPlaying = enCours && !auJoueur1;
+        vainqueur = null;
+        if (!enCours) {
+            if (joueur2.getGrille().tousCoules()) vainqueur = joueur1;
+            else if (joueur1.getGrille().tousCoules()) vainqueur = joueur2;
+        }
+    }
+
+    /**
+     * Journalise les tirs suivants de la partie ; une première image clé
+     * de l'état courant est écrite aussitôt.
+     * @param journal le journal, ou null pour ne plus journaliser
+     */
+    public void setJournal(journalTirs journal) {
+        this.journal = journal;
+        if (journal != null) journal.cle(this);
+    }
+
+    public boolean isTourJoueur1() {
+        return tourJoueur1;
+    }
+
+    public long getGraine() {
+        return graine;
+    }
+
+    public void setGraine(long graine) {
+        this.graine = graine;
+    }
+
+    public boolean enCours() {
+        return inProgess;
+    }
+
+    public joueur getVainqueur() {
+        return vainqueur;
+    }
+
+    public joueur getJoueur1() {
+        return joueur1;
+    }
+
+    public joueur getJoueur2() {
+        return joueur2;
+    }
+
+    /**
+     * @return le nombre de tirs valides joués par les deux joueurs.
+     */
+    public int getTours() {
+        return tours;
     }
     
     
@@ -1,28 +1,69 @@
 public class joueur {
 
-    protected plateau map;
-    public boolean joueurIsPlaying; 
+    protected grille bits;
+    /** Ecrit seulement par jeu, c'est-à-dire par le thread qui joue la partie. */
+    volatile boolean joueurIsPlaying;
     
     public joueur() {
 
     }
 
+    /**
+     * Joueur sur une grille nue ; le joueur affiché dans l'interface est
+     * joueurPlateau.
+     */
+    public joueur(grille bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * @return vrai si c'est à ce joueur de tirer.
+     */
+    public boolean isPlaying() {
+        return joueurIsPlaying;
+    }
+
+    public grille getGrille() {
+        return bits;
+    }
+
+    /**
+     * Choisit la case à viser chez l'adversaire. Le joueur humain joue
+     * depuis l'interface : il ne propose rien.
+     * @return l'indice y * largeur + x de la case, ou -1
+     */
+    public int choisirCible(joueur adversaire) {
+        return -1;
+    }
+
+    /**
+     * Appelé par jeu après chacun de nos tirs, pour les joueurs qui tirent
+     * parti des résultats précédents.
+     * @param resultat grille.RATE ou grille.TOUCHE
+     */
+    public void noterResultat(int x, int y, int resultat) {
+    }
+
+    /**
+     * Appelé par jeu, après noterResultat, quand notre tir vient de couler
+     * un bateau adverse.
+     */
+    public void noterCoule(int x, int y, int taille, boolean horizontal) {
+    }
+
     public boolean isEmpty(int x, int y){
-        boolean isEmpty; 
-        cases casesAVerifier = map.getCases(x, y);  
-        isEmpty = !(casesAVerifier instanceof segmentBateau);     
-        
-        return isEmpty; 
+        return !bits.estOccupee(x, y);
     }
     
-    public cases tirer(int x, int y, joueur cible) {
-        return cible.essuyerTir(x, y);
+    /**
+     * Tire sur la grille de la cible ; renvoie le code de résultat de la
+     * grille (grille.RATE, grille.TOUCHE...), sans allocation.
+     */
+    public int tirerSur(int x, int y, joueur cible) {
+        return cible.recevoirTir(x, y);
     }
 
-    public cases essuyerTir(int x, int y) {
-        cases casesAVerifier = map.getCases(x, y); 
-        casesAVerifier.toucher(); 
-        
-        return casesAVerifier; 
+    public int recevoirTir(int x, int y) {
+        return bits.tirer(x, y);
     }
 }
@@ -0,0 +1,32 @@
+/**
+ * Joueur affiché dans l'interface : sa grille est celle d'un plateau
+ * Swing, et les tirs qu'il essuie renvoient la case du plateau touchée.
+ * Le modèle (grille, jeu, joueur, ordinateur) ne dépend pas de cette
+ * classe et se charge sans AWT.
+ */
+public class joueurPlateau extends joueur {
+
+    protected plateau map;
+
+    public joueurPlateau(plateau map) {
+        setPlateau(map);
+    }
+
+    public void setPlateau(plateau map) {
+        this.map = map;
+        this.bits = map.getGrille();
+    }
+
+    public plateau getPlateau() {
+        return map;
+    }
+
+    public cases tirer(int x, int y, joueurPlateau cible) {
+        return cible.essuyerTir(x, y);
+    }
+
+    public cases essuyerTir(int x, int y) {
+        bits.tirer(x, y);
+        return map.getCases(x, y);
+    }
+}
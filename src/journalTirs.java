@@ -0,0 +1,469 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Journal en ajout seul des tirs d'une partie, pour rejouer hors interface
+ * une partie observée (par exemple un mauvais coup d'un ordinateur pendant
+ * une longue simulation).
+ * <p>Deux fichiers à côté du nom de base :
+ * <ul>
+ *   <li><code>base.tirs</code> : un enregistrement de ENREGISTREMENT octets
+ *       par tir joué par jeu.jouer, écrits par paquets sans vidage à chaque
+ *       tir :
+ *       <pre>int tours, int x, int y, byte tireur (1 ou 2), byte résultat, short 0</pre></li>
+ *   <li><code>base.cles</code> : des images clés, la partie complète au
+ *       format sauvegarde au départ puis tous les intervalle tours et en fin
+ *       de partie :
+ *       <pre>int tours, long nombre d'enregistrements déjà écrits, int longueur, octets</pre></li>
+ * </ul>
+ * Pour aller au tour N, on relit la dernière image clé d'au plus N tours
+ * puis on rejoue les tirs suivants par jeu.jouer, en vérifiant chaque
+ * résultat et, à chaque image clé rencontrée, l'état de toutes les cases.
+ */
+public class journalTirs implements Closeable {
+
+    public static final int MAGIE_TIRS = 0x424E5452;
+
+    public static final int MAGIE_CLES = 0x424E434C;
+
+    public static final short VERSION = 1;
+
+    /** Taille d'un enregistrement de tir, en octets. */
+    public static final int ENREGISTREMENT = 16;
+
+    /** Nombre de tours entre deux images clés par défaut. */
+    public static final int INTERVALLE_DEFAUT = 256;
+
+    private static final int ENTETE = 4 + 2 + 2;
+
+    /** Fenêtre de projection à la relecture, multiple de ENREGISTREMENT. */
+    private static final long FENETRE = 1L << 30;
+
+    private final FileChannel tirs;
+
+    private final FileChannel cles;
+
+    /** Tirs pas encore écrits : vidé quand il est plein ou à la fermeture. */
+    private final ByteBuffer tampon = ByteBuffer.allocateDirect(64 * 1024);
+
+    private final int intervalle;
+
+    private long enregistrements;
+
+    public journalTirs(File base) throws IOException {
+        this(base, INTERVALLE_DEFAUT);
+    }
+
+    /**
+     * Crée (ou remplace) le journal de nom de base donné.
+     * @param intervalle nombre de tours entre deux images clés
+     */
+    public journalTirs(File base, int intervalle) throws IOException {
+        if (intervalle <= 0) {
+            throw new IllegalArgumentException("intervalle invalide : " + intervalle);
+        }
+        this.intervalle = intervalle;
+        tirs = FileChannel.open(fichierTirs(base).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        cles = FileChannel.open(fichierCles(base).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ecrireTout(tirs, entete(MAGIE_TIRS));
+        ecrireTout(cles, entete(MAGIE_CLES));
+    }
+
+    public static File fichierTirs(File base) {
+        return new File(base.getPath() + ".tirs");
+    }
+
+    public static File fichierCles(File base) {
+        return new File(base.getPath() + ".cles");
+    }
+
+    private static ByteBuffer entete(int magie) {
+        ByteBuffer b = ByteBuffer.allocate(ENTETE);
+        b.putInt(magie).putShort(VERSION).putShort((short) ENREGISTREMENT);
+        b.flip();
+        return b;
+    }
+
+    public int getIntervalle() {
+        return intervalle;
+    }
+
+    /**
+     * @return le nombre de tirs journalisés depuis la création.
+     */
+    public long getEnregistrements() {
+        return enregistrements;
+    }
+
+    /***********************************************************************
+     *                             Ecriture                                *
+     ***********************************************************************/
+
+    /**
+     * Appelé par jeu.jouer après chaque tir, avant la mise à jour du tour.
+     */
+    void noter(jeu partie, int x, int y, int resultat) {
+        if (tampon.remaining() < ENREGISTREMENT) vider();
+        tampon.putInt(partie.getTours());
+        tampon.putInt(x);
+        tampon.putInt(y);
+        tampon.put((byte) (partie.isTourJoueur1() ? 1 : 2));
+        tampon.put((byte) resultat);
+        tampon.putShort((short) 0);
+        enregistrements++;
+    }
+
+    /**
+     * Appelé par jeu.jouer après un tir valide : image clé tous les
+     * intervalle tours et en fin de partie.
+     */
+    void tourJoue(jeu partie) {
+        if (!partie.enCours() || partie.getTours() % intervalle == 0) {
+            cle(partie);
+        }
+    }
+
+    /**
+     * Ecrit une image clé de l'état courant de la partie.
+     */
+    void cle(jeu partie) {
+        int longueur = sauvegarde.taille(partie);
+        ByteBuffer b = ByteBuffer.allocate(4 + 8 + 4 + longueur);
+        b.putInt(partie.getTours());
+        b.putLong(enregistrements);
+        b.putInt(longueur);
+        sauvegarde.ecrire(partie, b);
+        b.flip();
+        ecrireTout(cles, b);
+    }
+
+    /**
+     * Ecrit les tirs en attente (sans forcer leur passage sur le disque).
+     */
+    public void vider() {
+        tampon.flip();
+        ecrireTout(tirs, tampon);
+        tampon.clear();
+    }
+
+    private static void ecrireTout(FileChannel canal, ByteBuffer b) {
+        try {
+            while (b.hasRemaining()) canal.write(b);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            vider();
+        } finally {
+            try {
+                tirs.close();
+            } finally {
+                cles.close();
+            }
+        }
+    }
+
+    /***********************************************************************
+     *                             Relecture                               *
+     ***********************************************************************/
+
+    /**
+     * Rejoue le journal jusqu'au tour donné (ou jusqu'à sa fin) en partant
+     * de la dernière image clé qui le précède.
+     * @return la partie relue, au tour demandé
+     * @throws IllegalStateException si un tir rejoué ne donne pas le résultat
+     *         journalisé
+     */
+    public static jeu rejouer(File base, int tour) throws IOException {
+        images cles = new images(base);
+        try {
+            List<long[]> index = cles.index;
+            int k = 0;
+            while (k + 1 < index.size() && index.get(k + 1)[0] <= tour) k++;
+            long[] cle = index.get(k);
+            jeu partie = cles.image(cle);
+            relecture r = new relecture(base, cle[1]);
+            try {
+                while (partie.getTours() < tour && r.suivant()) {
+                    r.rejouer(partie);
+                }
+            } finally {
+                r.close();
+            }
+            return partie;
+        } finally {
+            cles.close();
+        }
+    }
+
+    /**
+     * Rejoue tout le journal depuis la première image clé en comparant,
+     * à chaque image clé suivante, l'état des cases des deux joueurs.
+     * @return le nombre de tirs vérifiés
+     * @throws IllegalStateException à la première divergence
+     */
+    public static long verifier(File base) throws IOException {
+        images cles = new images(base);
+        try {
+            List<long[]> index = cles.index;
+            long[] premiere = index.get(0);
+            jeu partie = cles.image(premiere);
+            relecture r = new relecture(base, premiere[1]);
+            long verifies = 0;
+            try {
+                for (int k = 1; k < index.size(); k++) {
+                    long[] cle = index.get(k);
+                    while (r.position() < cle[1]) {
+                        if (!r.suivant()) return verifies;
+                        r.rejouer(partie);
+                        verifies++;
+                    }
+                    comparer(cles.image(cle), partie);
+                }
+                while (r.suivant()) {
+                    r.rejouer(partie);
+                    verifies++;
+                }
+            } finally {
+                r.close();
+            }
+            return verifies;
+        } finally {
+            cles.close();
+        }
+    }
+
+    private static void lireEntete(ByteBuffer b, int magie, File fichier)
+            throws IOException {
+        if (b.remaining() < ENTETE || b.getInt() != magie) {
+            throw new IOException("pas un journal de tirs : " + fichier);
+        }
+        short version = b.getShort();
+        short taille = b.getShort();
+        if (version != VERSION || taille != ENREGISTREMENT) {
+            throw new IOException("version de journal inconnue : " + version);
+        }
+    }
+
+    /** Remplit b depuis la position donnée du canal, s'il reste assez d'octets. */
+    private static void lireA(FileChannel canal, ByteBuffer b, long position)
+            throws IOException {
+        while (b.hasRemaining()) {
+            if (canal.read(b, position + b.position()) < 0) break;
+        }
+        b.flip();
+    }
+
+    /**
+     * Index de base.cles, lu en-tête par en-tête ; chaque image n'est
+     * projetée qu'au moment d'être relue, si bien que le fichier peut
+     * dépasser 2 Go.
+     */
+    private static class images implements Closeable {
+
+        private final FileChannel canal;
+
+        /**
+         * Pour chaque image clé : {tours, enregistrements déjà écrits,
+         * position de l'image dans le fichier, longueur}.
+         */
+        final List<long[]> index = new ArrayList<long[]>();
+
+        images(File base) throws IOException {
+            File fichier = fichierCles(base);
+            canal = FileChannel.open(fichier.toPath(), StandardOpenOption.READ);
+            try {
+                ByteBuffer b = ByteBuffer.allocate(ENTETE);
+                lireA(canal, b, 0);
+                lireEntete(b, MAGIE_CLES, fichier);
+                long taille = canal.size();
+                long position = ENTETE;
+                b = ByteBuffer.allocate(4 + 8 + 4);
+                while (taille - position >= b.capacity()) {
+                    b.clear();
+                    lireA(canal, b, position);
+                    int tours = b.getInt();
+                    long indice = b.getLong();
+                    int longueur = b.getInt();
+                    position += b.capacity();
+                    if (longueur < 0 || taille - position < longueur) break; // image tronquée
+                    index.add(new long[] {tours, indice, position, longueur});
+                    position += longueur;
+                }
+                if (index.isEmpty()) {
+                    throw new IOException("aucune image clé : " + fichier);
+                }
+            } catch (IOException ex) {
+                canal.close();
+                throw ex;
+            }
+        }
+
+        jeu image(long[] cle) throws IOException {
+            return sauvegarde.lire(canal.map(FileChannel.MapMode.READ_ONLY,
+                                             cle[2], cle[3]));
+        }
+
+        @Override
+        public void close() throws IOException {
+            canal.close();
+        }
+    }
+
+    /**
+     * Compare deux parties au même tour, case par case.
+     * @throws IllegalStateException à la première case qui diffère
+     */
+    static void comparer(jeu attendue, jeu obtenue) {
+        int tour = attendue.getTours();
+        if (obtenue.getTours() != tour
+                || obtenue.enCours() != attendue.enCours()
+                || obtenue.isTourJoueur1() != attendue.isTourJoueur1()) {
+            throw new IllegalStateException("divergence au tour " + tour
+                    + " : partie au tour " + obtenue.getTours());
+        }
+        comparer(attendue.getJoueur1().getGrille(),
+                 obtenue.getJoueur1().getGrille(), 1, tour);
+        comparer(attendue.getJoueur2().getGrille(),
+                 obtenue.getJoueur2().getGrille(), 2, tour);
+    }
+
+    private static void comparer(grille attendue, grille obtenue, int joueur,
+                                 int tour) {
+        ByteBuffer a = ByteBuffer.allocate(attendue.tailleTirs());
+        ByteBuffer o = ByteBuffer.allocate(obtenue.tailleTirs());
+        attendue.ecrireTirs(a);
+        obtenue.ecrireTirs(o);
+        if (Arrays.equals(a.array(), o.array())) return;
+        for (int i = 0; i < attendue.getLargeur() * attendue.getHauteur(); i++) {
+            int x = i % attendue.getLargeur();
+            int y = i / attendue.getLargeur();
+            if (attendue.estTouchee(x, y) != obtenue.estTouchee(x, y)
+                    || attendue.estRatee(x, y) != obtenue.estRatee(x, y)) {
+                throw new IllegalStateException("divergence au tour " + tour
+                        + " : case (" + x + ";" + y + ") du joueur " + joueur);
+            }
+        }
+        throw new IllegalStateException("divergence au tour " + tour
+                + " : grille du joueur " + joueur);
+    }
+
+    /**
+     * Lecture séquentielle de base.tirs, projeté par fenêtres.
+     */
+    private static class relecture implements Closeable {
+
+        private final FileChannel canal;
+
+        private final long fin;
+
+        private long suivant;
+
+        private long fenetre = -1;
+
+        private MappedByteBuffer tampon;
+
+        private int tours;
+
+        private int x;
+
+        private int y;
+
+        private int tireur;
+
+        private int resultat;
+
+        relecture(File base, long premier) throws IOException {
+            canal = FileChannel.open(fichierTirs(base).toPath(),
+                                     StandardOpenOption.READ);
+            ByteBuffer entete = ByteBuffer.allocate(ENTETE);
+            lireA(canal, entete, 0);
+            lireEntete(entete, MAGIE_TIRS, fichierTirs(base));
+            // Un enregistrement incomplet en fin de fichier est ignoré.
+            fin = (canal.size() - ENTETE) / ENREGISTREMENT;
+            suivant = premier;
+        }
+
+        long position() {
+            return suivant;
+        }
+
+        boolean suivant() throws IOException {
+            if (suivant >= fin) return false;
+            long octet = suivant * ENREGISTREMENT;
+            if (fenetre < 0 || octet < fenetre || octet >= fenetre + tampon.capacity()) {
+                fenetre = octet - octet % FENETRE;
+                tampon = canal.map(FileChannel.MapMode.READ_ONLY,
+                        ENTETE + fenetre,
+                        Math.min(FENETRE, fin * ENREGISTREMENT - fenetre));
+            }
+            tampon.position((int) (octet - fenetre));
+            tours = tampon.getInt();
+            x = tampon.getInt();
+            y = tampon.getInt();
+            tireur = tampon.get();
+            resultat = tampon.get();
+            suivant++;
+            return true;
+        }
+
+        /**
+         * Rejoue le tir courant et vérifie qu'il donne le même résultat.
+         */
+        void rejouer(jeu partie) {
+            if (partie.getTours() != tours
+                    || partie.isTourJoueur1() != (tireur == 1)) {
+                throw new IllegalStateException("divergence au tour " + tours
+                        + " : tir du joueur " + tireur + " hors de son tour");
+            }
+            int obtenu = partie.jouer(x, y);
+            if (obtenu != resultat) {
+                throw new IllegalStateException("divergence au tour " + tours
+                        + " : tir en (" + x + ";" + y + ") journalisé " + resultat
+                        + ", rejoué " + obtenu);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            canal.close();
+        }
+    }
+
+    /**
+     * Usage : journalTirs base [tour]. Vérifie tout le journal, puis
+     * affiche la partie au tour demandé.
+     */
+    public static void main(String[] args) throws IOException {
+        File base = new File(args[0]);
+        long verifies = verifier(base);
+        System.out.println(verifies + " tirs rejoués sans divergence");
+        if (args.length > 1) {
+            jeu partie = rejouer(base, Integer.parseInt(args[1]));
+            System.out.println("tour " + partie.getTours()
+                    + (partie.enCours() ? (partie.isTourJoueur1()
+                            ? ", au joueur 1" : ", au joueur 2") : ", terminée")
+                    + " ; cases restantes "
+                    + partie.getJoueur1().getGrille().casesRestantes() + " / "
+                    + partie.getJoueur2().getGrille().casesRestantes());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Mesures des chemins chauds : résolution des tirs, placement des
+ * flottes, choix de cible des ordinateurs et dessin.
+ * <p>Les mesures ne sont prises qu'avec
+ * <code>-Dbataille.mesures=true</code>. ACTIF n'est pas une constante de
+ * compilation mais un champ static final lu à l'initialisation de la
+ * classe, que le JIT traite ensuite comme une constante : sans mesures, il
+ * supprime tout le code de mesure des méthodes instrumentées, qui
+ * s'écrit :
+ * <pre>
+ *   long t0 = mesures.ACTIF ? System.nanoTime() : 0;
+ *   ...
+ *   if (mesures.ACTIF) mesures.TIRS.noter(System.nanoTime() - t0);
+ * </pre>
+ * Inactives, les histogrammes n'allouent jamais leurs cases (voir
+ * histogramme). Actives, les mesures sont publiées par JMX sous le domaine
+ * <code>bataillenavale</code>, et peuvent être écrites périodiquement en
+ * texte ou en JSON (exporter).
+ */
+public class mesures {
+
+    /** Vrai si les mesures sont prises. */
+    public static final boolean ACTIF = Boolean.getBoolean("bataille.mesures");
+
+    /** Durée de jeu.jouer, en nanosecondes. */
+    public static final histogramme TIRS = new histogramme("tirs");
+
+    /** Durée de placementFlotte.generer. */
+    public static final histogramme PLACEMENTS = new histogramme("placements");
+
+    /** Durée de ordinateur.choisirCible. */
+    public static final histogramme CHOIX_CIBLE = new histogramme("choixCible");
+
+    /** Durée de plateau.paintComponent. */
+    public static final histogramme RENDU_PLATEAU = new histogramme("renduPlateau");
+
+    /** Durée de IHMImage.incrusteImage. */
+    public static final histogramme INCRUSTATIONS = new histogramme("incrustations");
+
+    public static final compteur TOUCHES = new compteur("touches");
+
+    public static final compteur RATES = new compteur("rates");
+
+    /** Tirs refusés : déjà tirés, hors grille ou hors tour. */
+    public static final compteur REFUSES = new compteur("refuses");
+
+    /** Flottes qu'aucun essai n'a pu placer. */
+    public static final compteur PLACEMENTS_ECHOUES = new compteur("placementsEchoues");
+
+    private static final histogramme[] HISTOGRAMMES = {
+        TIRS, PLACEMENTS, CHOIX_CIBLE, RENDU_PLATEAU, INCRUSTATIONS
+    };
+
+    private static final compteur[] COMPTEURS = {
+        TOUCHES, RATES, REFUSES, PLACEMENTS_ECHOUES
+    };
+
+    static {
+        if (ACTIF) publier();
+    }
+
+    private mesures() {
+    }
+
+    /** Enregistre chaque mesure comme MBean auprès du serveur JMX de la plateforme. */
+    private static void publier() {
+        MBeanServer serveurJmx = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (histogramme h : HISTOGRAMMES) {
+                serveurJmx.registerMBean(h, new ObjectName(
+                        "bataillenavale:type=histogramme,nom=" + h.getNom()));
+            }
+            for (compteur c : COMPTEURS) {
+                serveurJmx.registerMBean(c, new ObjectName(
+                        "bataillenavale:type=compteur,nom=" + c.getNom()));
+            }
+        } catch (JMException e) {
+            // Déjà publiées (autre chargeur de classes) : les mesures
+            // restent lisibles par texte() et json().
+        }
+    }
+
+    /**
+     * @return toutes les mesures, une par ligne, durées en nanosecondes.
+     */
+    public static String texte() {
+        StringBuilder sb = new StringBuilder();
+        for (histogramme h : HISTOGRAMMES) sb.append(h).append('\n');
+        for (compteur c : COMPTEURS) sb.append(c).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * @return toutes les mesures en un objet JSON sur une ligne.
+     */
+    public static String json() {
+        StringBuilder sb = new StringBuilder("{\"instant\":");
+        sb.append(System.currentTimeMillis()).append(",\"histogrammes\":[");
+        for (int i = 0; i < HISTOGRAMMES.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(HISTOGRAMMES[i].json());
+        }
+        sb.append("],\"compteurs\":[");
+        for (int i = 0; i < COMPTEURS.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(COMPTEURS[i].json());
+        }
+        return sb.append("]}").toString();
+    }
+
+    public static void reinitialiser() {
+        for (histogramme h : HISTOGRAMMES) h.reinitialiser();
+        for (compteur c : COMPTEURS) c.reinitialiser();
+    }
+
+    /**
+     * Ecrit les mesures sur sortie toutes les periode millisecondes, depuis
+     * un thread démon.
+     * @param enJson une ligne JSON par relevé plutôt que le texte
+     * @return l'exécuteur du relevé, à arrêter par shutdown
+     */
+    public static ScheduledExecutorService exporter(final PrintStream sortie,
+                                                    long periode,
+                                                    final boolean enJson) {
+        ScheduledExecutorService releveur =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "mesures");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        releveur.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sortie.println(enJson ? json() : texte());
+                sortie.flush();
+            }
+        }, periode, periode, TimeUnit.MILLISECONDS);
+        return releveur;
+    }
+
+    /**
+     * Note un résultat de jeu.jouer dans les compteurs de tirs.
+     */
+    static void noterTir(int resultat, long nanos) {
+        TIRS.noter(nanos);
+        if (resultat == grille.TOUCHE) TOUCHES.incrementer();
+        else if (resultat == grille.RATE) RATES.incrementer();
+        else REFUSES.incrementer();
+    }
+}
@@ -0,0 +1,326 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Ciblage par tirage de Monte-Carlo : on tire des dispositions complètes de
+ * la flotte adverse compatibles avec ce que l'on a vu (aucun bateau sur une
+ * case ratée, toutes les touches recouvertes) et l'on vise la case non
+ * tirée qui est occupée dans le plus grand nombre de tirages.
+ * <p>Les tirages sont répartis sur plusieurs threads pendant un budget de
+ * temps fixé par coup. Chaque thread garde d'un coup à l'autre son propre
+ * générateur, sa grille de travail et ses compteurs : la boucle de tirage
+ * n'alloue rien, seule la fusion des compteurs a lieu en fin de coup.
+ */
+public class monteCarlo {
+
+    /** Budget par défaut d'un coup, en nanosecondes (5 ms). */
+    public static final long BUDGET_DEFAUT = 5000000L;
+
+    private static final int ESSAIS_PAR_BATEAU = 200;
+
+    private final int largeur;
+
+    private final int hauteur;
+
+    private final int[] flotte;
+
+    private final long[] rate;
+
+    private final long[] touche;
+
+    private final int[] touches;
+
+    private int nbTouches;
+
+    private final echantillonneur[] travailleurs;
+
+    private final List<Callable<Void>> taches;
+
+    private final long[] total;
+
+    private final ForkJoinPool pool;
+
+    private long budget = BUDGET_DEFAUT;
+
+    private long echantillons;
+
+    private long dureeEchantillonnage;
+
+    private long dernierNombre;
+
+    private long derniereDuree;
+
+    public monteCarlo(int largeur, int hauteur, int[] flotte) {
+        this(largeur, hauteur, flotte,
+             Runtime.getRuntime().availableProcessors(),
+             ForkJoinPool.commonPool(), new SplittableRandom());
+    }
+
+    /**
+     * @param threads nombre de tirages menés en parallèle à chaque coup
+     * @param rand générateur d'où sont dérivés ceux des threads
+     */
+    public monteCarlo(int largeur, int hauteur, int[] flotte, int threads,
+                      ForkJoinPool pool, SplittableRandom rand) {
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+        this.flotte = flotte.clone();
+        this.pool = pool;
+        int n = largeur * hauteur;
+        rate = new long[(n + 63) >>> 6];
+        touche = new long[(n + 63) >>> 6];
+        touches = new int[n];
+        total = new long[n];
+        travailleurs = new echantillonneur[Math.max(1, threads)];
+        taches = new ArrayList<Callable<Void>>(travailleurs.length);
+        for (int t = 0; t < travailleurs.length; t++) {
+            travailleurs[t] = new echantillonneur(rand.split());
+            taches.add(travailleurs[t]);
+        }
+    }
+
+    /**
+     * @param nanos durée consacrée aux tirages à chaque coup
+     */
+    public void setBudget(long nanos) {
+        budget = nanos;
+    }
+
+    public void noter(int i, boolean estTouche) {
+        if (lire(rate, i) || lire(touche, i)) return;
+        if (estTouche) {
+            touche[i >>> 6] |= 1L << i;
+            touches[nbTouches++] = i;
+        } else {
+            rate[i >>> 6] |= 1L << i;
+        }
+    }
+
+    /**
+     * Lance les tirages pendant le budget puis renvoie la case non tirée la
+     * plus souvent occupée.
+     * @return l'indice de la case, ou -1 s'il n'en reste aucune
+     */
+    public int choisir() {
+        long debut = System.nanoTime();
+        long echeance = debut + budget;
+        for (echantillonneur e : travailleurs) e.echeance = echeance;
+        try {
+            List<Future<Void>> resultats = pool.invokeAll(taches);
+            for (Future<Void> f : resultats) f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        long nombre = 0;
+        Arrays.fill(total, 0L);
+        for (echantillonneur e : travailleurs) {
+            nombre += e.reussis;
+            for (int i = 0; i < total.length; i++) total[i] += e.compte[i];
+        }
+        derniereDuree = System.nanoTime() - debut;
+        dernierNombre = nombre;
+        echantillons += nombre;
+        dureeEchantillonnage += derniereDuree;
+
+        int meilleure = -1;
+        long max = -1;
+        for (int i = 0; i < total.length; i++) {
+            if (!lire(rate, i) && !lire(touche, i) && total[i] > max) {
+                max = total[i];
+                meilleure = i;
+            }
+        }
+        return meilleure;
+    }
+
+    /**
+     * @return le nombre de dispositions tirées par seconde lors du dernier
+     *         coup, tous threads confondus.
+     */
+    public double echantillonsParSeconde() {
+        return derniereDuree == 0 ? 0 : dernierNombre * 1e9 / derniereDuree;
+    }
+
+    /**
+     * @return la même mesure cumulée sur tous les coups joués.
+     */
+    public double echantillonsParSecondeMoyen() {
+        return dureeEchantillonnage == 0 ? 0
+                : echantillons * 1e9 / dureeEchantillonnage;
+    }
+
+    public long getEchantillons() {
+        return echantillons;
+    }
+
+    public int getThreads() {
+        return travailleurs.length;
+    }
+
+    private static boolean lire(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Tâche de tirage d'un thread ; ses tampons sont réutilisés d'un coup à
+     * l'autre.
+     */
+    private class echantillonneur implements Callable<Void> {
+
+        private final SplittableRandom rand;
+
+        private final long[] occupe;
+
+        private final int[] compte;
+
+        /** Positions de chaque bateau dans le tirage en cours. */
+        private final int[] positions;
+
+        private final boolean[] place;
+
+        /** Positions candidates pour recouvrir une touche (bateau, x, y, sens). */
+        private final int[] options;
+
+        volatile long echeance;
+
+        long reussis;
+
+        echantillonneur(SplittableRandom rand) {
+            this.rand = rand;
+            occupe = new long[rate.length];
+            compte = new int[largeur * hauteur];
+            positions = new int[3 * flotte.length];
+            place = new boolean[flotte.length];
+            int maxTaille = 0;
+            for (int t : flotte) maxTaille = Math.max(maxTaille, t);
+            options = new int[4 * 2 * maxTaille * flotte.length];
+        }
+
+        @Override
+        public Void call() {
+            Arrays.fill(compte, 0);
+            reussis = 0;
+            long fin = echeance;
+            do {
+                for (int k = 0; k < 64; k++) {
+                    if (tirer()) {
+                        reussis++;
+                        ajouterAuCompte();
+                    }
+                }
+            } while (System.nanoTime() < fin);
+            return null;
+        }
+
+        private void ajouterAuCompte() {
+            for (int b = 0; b < flotte.length; b++) {
+                int x = positions[3 * b];
+                int y = positions[3 * b + 1];
+                int pas = positions[3 * b + 2] != 0 ? 1 : largeur;
+                int i = y * largeur + x;
+                for (int k = 0; k < flotte[b]; k++, i += pas) compte[i]++;
+            }
+        }
+
+        /**
+         * Tire une disposition compatible : chaque touche non encore
+         * recouverte reçoit d'abord un bateau choisi parmi ceux qui peuvent
+         * la recouvrir, puis les bateaux restants sont placés au hasard.
+         * @return false si le tirage est abandonné
+         */
+        private boolean tirer() {
+            Arrays.fill(occupe, 0L);
+            Arrays.fill(place, false);
+            for (int t = 0; t < nbTouches; t++) {
+                int h = touches[t];
+                if (lire(occupe, h)) continue;
+                int nb = 0;
+                int hx = h % largeur;
+                int hy = h / largeur;
+                for (int b = 0; b < flotte.length; b++) {
+                    if (place[b]) continue;
+                    int taille = flotte[b];
+                    for (int d = 0; d < taille; d++) {
+                        if (libre(hx - d, hy, taille, true)) {
+                            nb = option(nb, b, hx - d, hy, 1);
+                        }
+                        if (taille > 1 && libre(hx, hy - d, taille, false)) {
+                            nb = option(nb, b, hx, hy - d, 0);
+                        }
+                    }
+                }
+                if (nb == 0) return false;
+                int o = 4 * rand.nextInt(nb);
+                poser(options[o], options[o + 1], options[o + 2],
+                      options[o + 3] != 0);
+            }
+            for (int b = 0; b < flotte.length; b++) {
+                if (place[b]) continue;
+                int taille = flotte[b];
+                boolean pose = false;
+                for (int essai = 0; essai < ESSAIS_PAR_BATEAU && !pose; essai++) {
+                    boolean horizontal = taille == 1 || rand.nextBoolean();
+                    int maxX = horizontal ? largeur - taille : largeur - 1;
+                    int maxY = horizontal ? hauteur - 1 : hauteur - taille;
+                    if (maxX < 0 || maxY < 0) continue;
+                    int x = rand.nextInt(maxX + 1);
+                    int y = rand.nextInt(maxY + 1);
+                    if (libre(x, y, taille, horizontal)) {
+                        poser(b, x, y, horizontal);
+                        pose = true;
+                    }
+                }
+                if (!pose) return false;
+            }
+            return true;
+        }
+
+        private int option(int nb, int b, int x, int y, int horizontal) {
+            options[4 * nb] = b;
+            options[4 * nb + 1] = x;
+            options[4 * nb + 2] = y;
+            options[4 * nb + 3] = horizontal;
+            return nb + 1;
+        }
+
+        /**
+         * Vrai si le bateau tient dans la grille sans recouvrir une case
+         * ratée ni un bateau déjà posé. Une fois les touches recouvertes,
+         * elles sont toutes occupées : un bateau posé ensuite au hasard ne
+         * peut donc plus en prendre une.
+         */
+        private boolean libre(int x, int y, int taille, boolean horizontal) {
+            if (x < 0 || y < 0) return false;
+            if (horizontal ? x + taille > largeur : y + taille > hauteur) {
+                return false;
+            }
+            int pas = horizontal ? 1 : largeur;
+            int i = y * largeur + x;
+            for (int k = 0; k < taille; k++, i += pas) {
+                if (lire(occupe, i) || lire(rate, i)) return false;
+            }
+            return true;
+        }
+
+        private void poser(int b, int x, int y, boolean horizontal) {
+            int pas = horizontal ? 1 : largeur;
+            int i = y * largeur + x;
+            for (int k = 0; k < flotte[b]; k++, i += pas) {
+                occupe[i >>> 6] |= 1L << i;
+            }
+            positions[3 * b] = x;
+            positions[3 * b + 1] = y;
+            positions[3 * b + 2] = horizontal ? 1 : 0;
+            place[b] = true;
+        }
+    }
+}
@@ -1,45 +1,318 @@
 
-import java.awt.Dimension;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 
 public class ordinateur extends joueur {
 
     private int niveauDifficulte;
+
+    /** Niveau réellement joué, fixé au premier tir (voir preparer). */
+    private int niveauJoue;
+
+    /**
+     * Graine des choix de ce joueur. Les tirages d'un coup en dérivent
+     * avec le nombre de tirs déjà reçus par la cible : une partie reprise
+     * (sauvegarde, image clé d'un journal) tire les mêmes cases que
+     * l'originale.
+     */
+    private final long graine;
+
+    /** Etat des tirages du coup en cours (voir auHasard). */
+    private long etat;
+
+    /** Chasse relue d'une sauvegarde, reprise au premier coup (voir setChasse). */
+    private int[] chasseReprise;
+
+    /** Longueurs des bateaux adverses, connues de l'ordinateur. */
+    private int[] flotteAdverse = placementFlotte.FLOTTE_STANDARD;
+
+    /** Cases voisines des touches à essayer (niveau 2). */
+    private int[] pile;
+
+    private int hauteurPile;
+
+    /** Touches pas encore attribuées à un bateau coulé (niveau 2). */
+    private int touchesEnCours;
+
+    /** Plus aucune case libre du damier : la chasse tire au hasard (niveau 2). */
+    private boolean damierEpuise;
+
+    /** Largeur et hauteur de la grille adverse, fixées au premier tir. */
+    private int largeurCible;
+
+    private int hauteurCible;
+
+    private densite carteDensite;
+
+    private monteCarlo tirages;
+
+    private long budgetTirages = monteCarlo.BUDGET_DEFAUT;
     
     public ordinateur() {
-        
+        this(1);
     }
+
     public ordinateur(int niveauDeDifficulté) {
-        if (joueurIsPlaying == false){
-            switch (niveauDeDifficulté){
-                case 1 :{ //Niveau facile
-                    int[] target = randomTarget(map);  
-                
-                    // TODO: Paramètre
-                    tirer(target[0] , target[1], cible); 
-                }
-                
-                case 2:{
-                    
-                }
-                case 3:{
-                    
-                }
-                default:{
-                    System.out.print("Ok ta mer");
-                }
+        niveauDifficulte = niveauDeDifficulté;
+        graine = new SplittableRandom().nextLong();
+    }
+
+    public ordinateur(int niveauDeDifficulté, grille bits) {
+        this(niveauDeDifficulté, bits, new SplittableRandom());
+    }
+
+    /**
+     * @param hasard générateur d'où est tirée la graine des choix ; avec
+     *        un générateur de graine fixée, les niveaux 1 à 3 jouent
+     *        toujours la même partie (le niveau 4 dépend de son budget de
+     *        temps).
+     */
+    public ordinateur(int niveauDeDifficulté, grille bits, SplittableRandom hasard) {
+        this(niveauDeDifficulté, bits, hasard.nextLong());
+    }
+
+    /**
+     * @param graine graine des choix de l'ordinateur (voir getGraine)
+     */
+    public ordinateur(int niveauDeDifficulté, grille bits, long graine) {
+        super(bits);
+        niveauDifficulte = niveauDeDifficulté;
+        this.graine = graine;
+    }
+
+    /**
+     * @return la graine des choix, à sauvegarder avec la partie pour
+     *         qu'une partie reprise continue à l'identique.
+     */
+    public long getGraine() {
+        return graine;
+    }
+
+    public int getNiveauDifficulte() {
+        return niveauDifficulte;
+    }
+
+    /**
+     * Durée accordée aux tirages de Monte-Carlo à chaque coup (niveau 4).
+     */
+    public void setBudgetTirages(long nanos) {
+        budgetTirages = nanos;
+        if (tirages != null) tirages.setBudget(nanos);
+    }
+
+    /**
+     * @return le générateur de tirages du niveau 4, null avant le premier
+     *         coup ou pour les autres niveaux.
+     */
+    public monteCarlo getTirages() {
+        return tirages;
+    }
+
+    public void setFlotteAdverse(int[] tailles) {
+        flotteAdverse = tailles.clone();
+    }
+
+    /**
+     * Choisit le prochain tir selon le niveau de difficulté.
+     * @return l'indice y * largeur + x de la case visée sur la grille de
+     *         l'adversaire
+     */
+    @Override
+    public int choisirCible(joueur adversaire) {
+        if (!mesures.ACTIF) return choisir(adversaire);
+        long t0 = System.nanoTime();
+        int cible = choisir(adversaire);
+        mesures.CHOIX_CIBLE.noter(System.nanoTime() - t0);
+        return cible;
+    }
+
+    private int choisir(joueur adversaire) {
+        grille carte = adversaire.getGrille();
+        if (largeurCible == 0) {
+            preparer(carte);
+            if (chasseReprise != null && niveauJoue == 2) {
+                reprendreChasse(chasseReprise);
+            } else if (carte.getTirs() > 0) {
+                relire(carte);
             }
-        }  
+            chasseReprise = null;
+        }
+        etat = simulateur.graineDePartie(graine, carte.getTirs());
+        switch (niveauJoue) {
+            case 2 : //Chasse puis destruction
+                return cibleChasse(carte);
+            case 3 : //Densité de probabilité
+                return carteDensite.choisir();
+            case 4 : //Tirages de Monte-Carlo
+                return tirages.choisir();
+            case 1 : //Niveau facile
+            default:
+                return cibleAleatoire(carte);
+        }
+    }
+
+    /**
+     * Partie reprise en cours (par exemple relue d'une sauvegarde) :
+     * l'ordinateur relit sur la grille adverse les tirs déjà joués.
+     */
+    private void relire(grille adverse) {
+        for (int y = 0; y < hauteurCible; y++) {
+            for (int x = 0; x < largeurCible; x++) {
+                if (adverse.estTouchee(x, y)) noterResultat(x, y, grille.TOUCHE);
+                else if (adverse.estRatee(x, y)) noterResultat(x, y, grille.RATE);
+            }
+        }
+        // Les bateaux coulés ont été annoncés : on les reprend aussi.
+        for (int k = 0; k < adverse.nombreNavires(); k++) {
+            if (adverse.navireCoule(k)) {
+                noterCoule(adverse.navireX(k), adverse.navireY(k),
+                           adverse.navireTaille(k), adverse.navireHorizontal(k));
+            }
+        }
+    }
+
+    /**
+     * Etat du niveau 2, que la grille adverse ne suffit pas à retrouver
+     * (l'ordre de la pile dépend de l'ordre des tirs) : touches en cours,
+     * 1 si le damier est épuisé, puis la pile. Vide avant le premier coup
+     * ou à un autre niveau, où relire la grille suffit.
+     */
+    int[] getChasse() {
+        if (largeurCible == 0 || niveauJoue != 2) return new int[0];
+        int[] chasse = new int[2 + hauteurPile];
+        chasse[0] = touchesEnCours;
+        chasse[1] = damierEpuise ? 1 : 0;
+        System.arraycopy(pile, 0, chasse, 2, hauteurPile);
+        return chasse;
+    }
+
+    /**
+     * Etat rendu par getChasse, repris au premier coup à la place de la
+     * relecture de la grille adverse.
+     */
+    void setChasse(int[] chasse) {
+        chasseReprise = (chasse.length >= 2) ? chasse : null;
+    }
+
+    private void reprendreChasse(int[] chasse) {
+        touchesEnCours = chasse[0];
+        damierEpuise = chasse[1] != 0;
+        hauteurPile = chasse.length - 2;
+        pile = Arrays.copyOfRange(chasse, 2, 2 + Math.max(16, hauteurPile));
+    }
+
+    private void preparer(grille carte) {
+        largeurCible = carte.getLargeur();
+        hauteurCible = carte.getHauteur();
+        // Les niveaux 3 et 4 tiennent plusieurs tableaux d'une case par
+        // case : sur une grille creuse, l'ordinateur joue au niveau 2.
+        niveauJoue = (niveauDifficulte >= 3 && carte.estCreuse()) ? 2 : niveauDifficulte;
+        if (niveauJoue == 2) {
+            pile = new int[16];
+        } else if (niveauJoue == 3) {
+            carteDensite = new densite(largeurCible, hauteurCible, flotteAdverse);
+        } else if (niveauJoue == 4) {
+            tirages = new monteCarlo(largeurCible, hauteurCible, flotteAdverse,
+                    Runtime.getRuntime().availableProcessors(),
+                    ForkJoinPool.commonPool(), new SplittableRandom(graine));
+            tirages.setBudget(budgetTirages);
+        }
+    }
+
+    @Override
+    public void noterResultat(int x, int y, int resultat) {
+        // Pas encore préparé : ce tir sera relu sur la grille au premier coup.
+        if (largeurCible == 0) return;
+        boolean touche = resultat == grille.TOUCHE;
+        if (niveauJoue == 3) {
+            carteDensite.noter(y * largeurCible + x, touche);
+        } else if (niveauJoue == 4) {
+            tirages.noter(y * largeurCible + x, touche);
+        } else if (niveauJoue == 2 && touche) {
+            touchesEnCours++;
+            if (hauteurPile + 4 > pile.length) {
+                pile = Arrays.copyOf(pile, 2 * pile.length);
+            }
+            if (x > 0) pile[hauteurPile++] = y * largeurCible + x - 1;
+            if (x < largeurCible - 1) pile[hauteurPile++] = y * largeurCible + x + 1;
+            if (y > 0) pile[hauteurPile++] = (y - 1) * largeurCible + x;
+            if (y < hauteurCible - 1) pile[hauteurPile++] = (y + 1) * largeurCible + x;
+        }
+    }
+
+    /**
+     * Niveau 2 : quand toutes les touches sont expliquées par des bateaux
+     * coulés, les voisines encore empilées ne mènent à rien et sont
+     * oubliées. Niveau 3 : les cases du bateau sont retirées de la carte.
+     */
+    @Override
+    public void noterCoule(int x, int y, int taille, boolean horizontal) {
+        if (largeurCible == 0) return;
+        if (niveauJoue == 2) {
+            touchesEnCours -= taille;
+            if (touchesEnCours <= 0) {
+                touchesEnCours = 0;
+                hauteurPile = 0;
+            }
+        } else if (niveauJoue == 3) {
+            carteDensite.couler(y * largeurCible + x, taille, horizontal);
+        }
+    }
+
+    /**
+     * Niveau 2 : tant qu'une touche a des voisines non essayées on les vise,
+     * sinon on cherche au hasard sur les cases d'une même couleur d'un
+     * damier, aucun bateau ne faisant moins de deux cases.
+     */
+    private int cibleChasse(grille carte) {
+        while (hauteurPile > 0) {
+            int i = pile[--hauteurPile];
+            if (!carte.aEteTiree(i)) return i;
+        }
+        int n = largeurCible * hauteurCible;
+        int i = auHasard(n);
+        if (!damierEpuise) {
+            int j = damier(carte, i, n);
+            if (j < 0) j = damier(carte, 0, i);
+            if (j >= 0) return j;
+            damierEpuise = true;
+        }
+        return cibleAleatoire(carte);
+    }
+
+    /** Première case libre de [debut, fin) sur le damier, -1 sinon. */
+    private int damier(grille carte, int debut, int fin) {
+        for (int i = carte.suivanteLibre(debut, fin); i >= 0;
+             i = carte.suivanteLibre(i + 1, fin)) {
+            if (((i % largeurCible + i / largeurCible) & 1) == 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Case au hasard parmi celles qui n'ont pas encore été visées : si la
+     * case tirée l'a déjà été, on prend la suivante encore libre.
+     */
+    private int cibleAleatoire(grille carte) {
+        int n = carte.getLargeur() * carte.getHauteur();
+        return libreApres(carte, auHasard(n), n);
+    }
+
+    /** Tirage suivant du coup en cours, dans [0, n). */
+    private int auHasard(int n) {
+        etat = simulateur.graineDePartie(etat, 0);
+        return (int) (((etat >>> 32) * n) >>> 32);
+    }
+
+    /**
+     * @return la première case libre à partir de i en revenant au début
+     *         de la grille après la dernière, i si toutes ont été visées.
+     */
+    private int libreApres(grille carte, int i, int n) {
+        int j = carte.suivanteLibre(i, n);
+        if (j < 0) j = carte.suivanteLibre(0, i);
+        return (j < 0) ? i : j;
     }
-    
-   private int[] randomTarget(plateau carte){
-        Dimension mapSize = carte.getMapSize(); 
-        Random rand = new Random();
-        int x = rand.nextInt(mapSize.width + 1); //Nombre aléatoire entre 0 et n-1   
-        int y = rand.nextInt(mapSize.height + 1); //Entre 0 et n-1   
-        int[] tabCoordonnées = {x,y};     
-    
-        return tabCoordonnées;
-   }
 }
@@ -0,0 +1,263 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ordonnanceur des tours de nombreuses parties sur un exécuteur partagé.
+ * <p>Chaque partie inscrite a sa file de coups. Un compteur atomique de
+ * coups en attente sert de jeton : le dépôt qui le fait passer de 0 à 1
+ * confie la file à l'exécuteur, et la tâche la vide tant qu'il reste des
+ * coups. Une partie n'est donc jouée que par un thread à la fois, sans
+ * verrou, et ses coups sont joués dans l'ordre de dépôt. Après LOT coups
+ * la tâche se remet au bout de la file de l'exécuteur pour laisser
+ * avancer les autres parties.
+ * <p>L'ordonnanceur compte les coups en attente et mesure la latence de
+ * chaque coup, du dépôt à la fin de sa résolution.
+ */
+public class ordonnanceur {
+
+    /** Coups joués d'affilée par une partie avant de céder la place. */
+    public static final int LOT = 64;
+
+    private final Executor executeur;
+
+    private final LongAdder enAttente = new LongAdder();
+
+    /** Latence des coups, du dépôt à la fin de leur résolution. */
+    private final histogramme latences = new histogramme("tours");
+
+    public ordonnanceur(Executor executeur) {
+        this.executeur = executeur;
+    }
+
+    /**
+     * Confie une partie à l'ordonnanceur ; elle ne doit plus être jouée
+     * que par la file renvoyée.
+     */
+    public file inscrire(jeu partie) {
+        return new file(partie);
+    }
+
+    /**
+     * Un coup à jouer sur une partie, depuis le thread de sa file.
+     */
+    public interface coup {
+        /** @return le résultat du coup, transmis à son futur */
+        int jouer(jeu partie);
+    }
+
+    /**
+     * File de coups d'une partie.
+     */
+    public final class file implements Runnable {
+
+        private final jeu partie;
+
+        private final ConcurrentLinkedQueue<depot> coups =
+                new ConcurrentLinkedQueue<depot>();
+
+        /** Coups déposés et pas encore joués ; non nul tant que la file est confiée à l'exécuteur. */
+        private final AtomicInteger jeton = new AtomicInteger();
+
+        private file(jeu partie) {
+            this.partie = partie;
+        }
+
+        public jeu getPartie() {
+            return partie;
+        }
+
+        /**
+         * @return le nombre de coups en attente dans cette file.
+         */
+        public int getProfondeur() {
+            return jeton.get();
+        }
+
+        /**
+         * Dépose un coup quelconque.
+         * @return le futur de son résultat
+         */
+        public CompletableFuture<Integer> deposer(coup c) {
+            depot d = new depot(c);
+            coups.offer(d);
+            enAttente.increment();
+            if (jeton.getAndIncrement() == 0) executeur.execute(this);
+            return d.resultat;
+        }
+
+        /**
+         * Tir de tireur en (x;y), refusé par jeu.PAS_SON_TOUR si ce n'est
+         * plus son tour quand le coup est joué.
+         */
+        public CompletableFuture<Integer> tirer(final joueur tireur,
+                                                final int x, final int y) {
+            return deposer(new coup() {
+                @Override
+                public int jouer(jeu p) {
+                    return p.jouer(tireur, x, y);
+                }
+            });
+        }
+
+        /**
+         * Fait jouer le joueur dont c'est le tour (voir jeu.nouveauTour).
+         * @return le futur du nombre de tours joués après ce coup
+         */
+        public CompletableFuture<Integer> nouveauTour() {
+            return deposer(new coup() {
+                @Override
+                public int jouer(jeu p) {
+                    p.nouveauTour();
+                    return p.getTours();
+                }
+            });
+        }
+
+        /**
+         * Fait jouer les ordinateurs jusqu'à la fin de la partie, un tour
+         * par coup déposé, pour que les parties voisines avancent aussi.
+         * @return le futur du nombre de tours de la partie finie
+         */
+        public CompletableFuture<Integer> jusquAuBout() {
+            final CompletableFuture<Integer> fin = new CompletableFuture<Integer>();
+            deposer(new coup() {
+                @Override
+                public int jouer(jeu p) {
+                    try {
+                        int tours = p.getTours();
+                        p.nouveauTour();
+                        if (!p.enCours()) {
+                            fin.complete(p.getTours());
+                        } else if (p.getTours() == tours) {
+                            fin.completeExceptionally(new IllegalStateException(
+                                    "le joueur dont c'est le tour ne joue pas seul"));
+                        } else {
+                            deposer(this);
+                        }
+                        return p.getTours();
+                    } catch (Throwable e) {
+                        // Sinon seul le futur de ce coup échouerait et
+                        // l'attente de la fin ne se terminerait jamais.
+                        fin.completeExceptionally(e);
+                        throw e;
+                    }
+                }
+            });
+            return fin;
+        }
+
+        @Override
+        public void run() {
+            int n = 0;
+            boolean rendu = false;
+            try {
+                while (true) {
+                    depot d = coups.poll();
+                    enAttente.decrement();
+                    try {
+                        d.resultat.complete(d.c.jouer(partie));
+                    } catch (Throwable e) {
+                        d.resultat.completeExceptionally(e);
+                        if (e instanceof Error) throw (Error) e;
+                    } finally {
+                        latences.noter(System.nanoTime() - d.instant);
+                    }
+                    if (jeton.decrementAndGet() == 0) {
+                        rendu = true;
+                        return;
+                    }
+                    if (++n == LOT) {
+                        rendu = true;
+                        executeur.execute(this);
+                        return;
+                    }
+                }
+            } finally {
+                // Une Error remonte à l'exécuteur avec le jeton du coup
+                // encore pris : on le rend, et on confie le reste de la
+                // file à l'exécuteur pour que la partie ne s'arrête pas.
+                if (!rendu && jeton.decrementAndGet() != 0) executeur.execute(this);
+            }
+        }
+    }
+
+    /** Coup déposé, avec l'instant du dépôt. */
+    private static final class depot {
+        final coup c;
+        final long instant = System.nanoTime();
+        final CompletableFuture<Integer> resultat = new CompletableFuture<Integer>();
+
+        depot(coup c) {
+            this.c = c;
+        }
+    }
+
+    /**
+     * @return le nombre de coups en attente, toutes parties confondues.
+     */
+    public long getProfondeur() {
+        return enAttente.sum();
+    }
+
+    public long getCoupsJoues() {
+        return latences.getNombre();
+    }
+
+    /**
+     * @return la latence moyenne d'un coup, en nanosecondes.
+     */
+    public double latenceMoyenne() {
+        return latences.getMoyenne();
+    }
+
+    /**
+     * @param q quantile entre 0 et 1
+     * @return la latence du quantile q, en nanosecondes, à 1,6 % près.
+     */
+    public long latence(double q) {
+        return latences.quantile(q);
+    }
+
+    public histogramme getLatences() {
+        return latences;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("coups : %d, en attente : %d, latence moyenne : %.1f µs,"
+                + " p50 < %.1f µs, p99 < %.1f µs",
+                getCoupsJoues(), getProfondeur(), latenceMoyenne() / 1000,
+                latence(0.5) / 1000.0, latence(0.99) / 1000.0);
+    }
+
+    /**
+     * Usage : ordonnanceur [parties [niveau]] ; joue toutes les parties
+     * en même temps sur le pool commun.
+     */
+    public static void main(String[] args) throws Exception {
+        int parties = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int niveau = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        simulateur sim = new simulateur(10, 10, placementFlotte.FLOTTE_STANDARD,
+                                        niveau, niveau);
+        ordonnanceur o = new ordonnanceur(ForkJoinPool.commonPool());
+        List<CompletableFuture<Integer>> fins =
+                new ArrayList<CompletableFuture<Integer>>(parties);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < parties; i++) {
+            fins.add(o.inscrire(sim.nouvellePartie(i)).jusquAuBout());
+        }
+        long tours = 0;
+        for (CompletableFuture<Integer> f : fins) tours += f.get();
+        double secondes = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("%d parties, %d tours en %.2f s (%.0f tours/s)%n",
+                parties, tours, secondes, tours / secondes);
+        System.out.println(o);
+    }
+}
@@ -0,0 +1,229 @@
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Générateur de dispositions aléatoires d'une flotte complète.
+ * <p>Sur une grille d'au plus 64 cases de côté, l'occupation est tenue dans
+ * un masque par ligne et un masque par colonne : pour chaque bateau on
+ * compte en quelques opérations sur des long toutes les positions valides,
+ * puis on en tire une uniformément. Il n'y a donc pas de tirages rejetés,
+ * même sur un plateau encombré ; on ne recommence que si un bateau n'a plus
+ * aucune place, ce qui est très rare.
+ * <p>Sur les grandes grilles on retombe sur des tirages au hasard vérifiés
+ * dans un ensemble de bits, les collisions y étant peu probables ; au-delà
+ * de grille.SEUIL_CREUSE cases, dans un ensembleCases, pour que la mémoire
+ * ne dépende que de la flotte.
+ * <p>Une instance réutilise ses tampons : elle ne doit pas être partagée
+ * entre plusieurs threads.
+ */
+public class placementFlotte {
+
+    /** Flotte classique : porte-avions, croiseur, 2 contre-torpilleurs, torpilleur. */
+    public static final int[] FLOTTE_STANDARD = {5, 4, 3, 3, 2};
+
+    private static final int ESSAIS_PAR_BATEAU = 1000;
+
+    private final int largeur;
+
+    private final int hauteur;
+
+    private final int[] tailles;
+
+    /** Indices des bateaux, du plus long au plus court. */
+    private final int[] ordre;
+
+    private final boolean petiteGrille;
+
+    private final long[] lignes;
+
+    private final long[] colonnes;
+
+    /** Débuts de positions valides par ligne puis par colonne. */
+    private final long[] debuts;
+
+    private final long[] occupe;
+
+    private final ensembleCases occupeCreuse;
+
+    public placementFlotte(int largeur, int hauteur, int[] tailles) {
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+        this.tailles = tailles.clone();
+        this.ordre = new int[tailles.length];
+        for (int i = 0; i < ordre.length; i++) ordre[i] = i;
+        for (int i = 1; i < ordre.length; i++) {
+            int k = ordre[i];
+            int j = i - 1;
+            while (j >= 0 && this.tailles[ordre[j]] < this.tailles[k]) {
+                ordre[j + 1] = ordre[j];
+                j--;
+            }
+            ordre[j + 1] = k;
+        }
+        petiteGrille = largeur <= 64 && hauteur <= 64;
+        if (petiteGrille) {
+            lignes = new long[hauteur];
+            colonnes = new long[largeur];
+            debuts = new long[hauteur + largeur];
+            occupe = null;
+            occupeCreuse = null;
+        } else {
+            lignes = null;
+            colonnes = null;
+            debuts = null;
+            long surface = (long) largeur * hauteur;
+            if (surface > grille.SEUIL_CREUSE) {
+                int segments = 0;
+                for (int taille : tailles) segments += taille;
+                occupe = null;
+                occupeCreuse = new ensembleCases(segments);
+            } else {
+                occupe = new long[(int) ((surface + 63) >>> 6)];
+                occupeCreuse = null;
+            }
+        }
+    }
+
+    public int nombreBateaux() {
+        return tailles.length;
+    }
+
+    /**
+     * Tire une disposition complète.
+     * @param rand générateur propre à l'appelant
+     * @param sortie tableau d'au moins 3 * nombreBateaux() entiers, rempli
+     *        par triplets (x, y, 1 si horizontal sinon 0) dans l'ordre des
+     *        tailles passées au constructeur
+     * @return false si la flotte ne rentre pas dans la grille
+     */
+    public boolean generer(SplittableRandom rand, int[] sortie) {
+        long t0 = mesures.ACTIF ? System.nanoTime() : 0;
+        boolean ok = false;
+        for (int essai = 0; essai < ESSAIS_PAR_BATEAU && !ok; essai++) {
+            ok = petiteGrille ? genererMasques(rand, sortie)
+                              : genererAuHasard(rand, sortie);
+        }
+        if (mesures.ACTIF) {
+            mesures.PLACEMENTS.noter(System.nanoTime() - t0);
+            if (!ok) mesures.PLACEMENTS_ECHOUES.incrementer();
+        }
+        return ok;
+    }
+
+    /**
+     * Tire une disposition et la pose sur la grille, qui doit être vide.
+     * @return false si la flotte ne rentre pas
+     */
+    public boolean placer(grille cible, SplittableRandom rand, int[] sortie) {
+        if (!generer(rand, sortie)) return false;
+        for (int b = 0; b < tailles.length; b++) {
+            cible.placer(sortie[3 * b], sortie[3 * b + 1], tailles[b],
+                         sortie[3 * b + 2] != 0);
+        }
+        return true;
+    }
+
+    private boolean genererMasques(SplittableRandom rand, int[] sortie) {
+        Arrays.fill(lignes, 0L);
+        Arrays.fill(colonnes, 0L);
+        long pleineLigne = grille.masqueLongueur(largeur);
+        long pleineColonne = grille.masqueLongueur(hauteur);
+        for (int b : ordre) {
+            int taille = tailles[b];
+            int total = 0;
+            for (int y = 0; y < hauteur; y++) {
+                long d = debutsLibres(~lignes[y] & pleineLigne, taille);
+                debuts[y] = d;
+                total += Long.bitCount(d);
+            }
+            if (taille > 1) {
+                for (int x = 0; x < largeur; x++) {
+                    long d = debutsLibres(~colonnes[x] & pleineColonne, taille);
+                    debuts[hauteur + x] = d;
+                    total += Long.bitCount(d);
+                }
+            }
+            if (total == 0) return false;
+
+            int k = rand.nextInt(total);
+            int ligne = 0;
+            while (k >= Long.bitCount(debuts[ligne])) {
+                k -= Long.bitCount(debuts[ligne]);
+                ligne++;
+            }
+            long d = debuts[ligne];
+            for (; k > 0; k--) d &= d - 1;
+            int pos = Long.numberOfTrailingZeros(d);
+
+            long segment = grille.masqueLongueur(taille) << pos;
+            if (ligne < hauteur) {
+                int y = ligne;
+                lignes[y] |= segment;
+                for (int x = pos; x < pos + taille; x++) colonnes[x] |= 1L << y;
+                ecrire(sortie, b, pos, y, true);
+            } else {
+                int x = ligne - hauteur;
+                colonnes[x] |= segment;
+                for (int y = pos; y < pos + taille; y++) lignes[y] |= 1L << x;
+                ecrire(sortie, b, x, pos, false);
+            }
+        }
+        return true;
+    }
+
+    /** Positions de départ de taille bits libres consécutifs dans libre. */
+    private static long debutsLibres(long libre, int taille) {
+        long d = libre;
+        for (int k = 1; k < taille && d != 0; k++) d &= libre >>> k;
+        return d;
+    }
+
+    private boolean genererAuHasard(SplittableRandom rand, int[] sortie) {
+        if (occupe != null) Arrays.fill(occupe, 0L);
+        else occupeCreuse.effacer();
+        for (int b : ordre) {
+            int taille = tailles[b];
+            boolean pose = false;
+            for (int essai = 0; essai < ESSAIS_PAR_BATEAU && !pose; essai++) {
+                boolean horizontal = rand.nextBoolean();
+                int maxX = horizontal ? largeur - taille : largeur - 1;
+                int maxY = horizontal ? hauteur - 1 : hauteur - taille;
+                if (maxX < 0 || maxY < 0) continue;
+                int x = rand.nextInt(maxX + 1);
+                int y = rand.nextInt(maxY + 1);
+                if (libre(x, y, taille, horizontal)) {
+                    int pas = horizontal ? 1 : largeur;
+                    int i = y * largeur + x;
+                    for (int k = 0; k < taille; k++, i += pas) {
+                        if (occupe != null) occupe[i >>> 6] |= 1L << i;
+                        else occupeCreuse.ajouter(i);
+                    }
+                    ecrire(sortie, b, x, y, horizontal);
+                    pose = true;
+                }
+            }
+            if (!pose) return false;
+        }
+        return true;
+    }
+
+    private boolean libre(int x, int y, int taille, boolean horizontal) {
+        int pas = horizontal ? 1 : largeur;
+        int i = y * largeur + x;
+        for (int k = 0; k < taille; k++, i += pas) {
+            if (occupe != null ? (occupe[i >>> 6] & (1L << i)) != 0
+                               : occupeCreuse.contient(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void ecrire(int[] sortie, int b, int x, int y,
+                               boolean horizontal) {
+        sortie[3 * b] = x;
+        sortie[3 * b + 1] = y;
+        sortie[3 * b + 2] = horizontal ? 1 : 0;
+    }
+}
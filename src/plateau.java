@@ -1,34 +1,510 @@
 
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import javax.imageio.ImageIO;
 import javax.swing.JPanel;
 
-public class plateau extends JPanel{
+/**
+ * Plateau de jeu et son affichage Swing.
+ * <p>Le panneau est une fenêtre sur le plateau : seules les cases visibles
+ * sont dessinées, au zoom courant, dans une image de la taille du panneau.
+ * Au zoom 0 les tuiles de l'atlas sont à leur taille ; chaque cran de
+ * zoom divise la taille des cases par deux, avec les tuiles réduites de
+ * l'atlas, puis, sous un pixel par case, chaque pixel montre une case
+ * sur 2, 4, 8... Le temps de dessin dépend donc de la taille du panneau
+ * et non de celle du plateau.
+ * <p>La molette zoome autour du pointeur, le glisser de la souris
+ * déplace la vue. Un tir ne demande que le repeint du rectangle de sa
+ * case.
+ * <p>En mode accéléré (par défaut), l'image dessinée est gardée dans une
+ * VolatileImage compatible avec l'écran : seules les zones modifiées
+ * depuis le dernier repeint sont redessinées, le reste est une simple
+ * copie en mémoire vidéo. Si le contenu de cette image est perdu (changement
+ * d'écran, mise en veille...), elle est recréée et redessinée entière.
+ */
+public class plateau extends JPanel implements ecouteurGrille{
 
-    private cases[][] monde;
+    private final grille bits;
+
+    /**
+     * Vues créées à la demande par getCases, colonne par colonne ; nul
+     * pour une grille creuse.
+     */
+    private final cases[][] monde;
+
+    /**
+     * Vues des segments de bateau d'une grille creuse, par indice de case.
+     * Les vues sur l'eau n'y sont pas gardées : elles lisent tout dans la
+     * grille et se recréent sans perte, alors qu'une colonne de vues par
+     * case tirée coûterait la taille du plateau.
+     */
+    private final HashMap<Integer, cases> segmentsCreux;
+
+    private final List<bateau> flotte = new ArrayList<bateau>();
+
+    /** Bateaux par numéro dans la grille, créés à la demande par navire. */
+    private bateau[] parNumero = new bateau[8];
+
+    /** Taille maximale du panneau demandée à la mise en page. */
+    private static final int VUE_MAX = 800;
+
+    /** Partie visible du plateau, à la taille du panneau. */
+    private IHMImage vue;
+
+    /** Ligne de pixels en cours d'écriture dans vue. */
+    private int[] ligne = new int[0];
+
+    /** Tuile (type * ETATS + etat) des cases visibles d'une rangée. */
+    private int[] rangee = new int[0];
+
+    /**
+     * Zoom courant : de 0 à getNiveaux() - 1, niveau de mipmap des tuiles ;
+     * au-delà, chaque pixel montre une case sur 2, 4, 8...
+     */
+    private volatile int zoom;
+
+    /** Pixel du plateau, au zoom courant, affiché en haut à gauche. */
+    private volatile int origineX;
+
+    private volatile int origineY;
+
+    /** Copie de vue gardée par la carte graphique entre deux repeints. */
+    private VolatileImage tampon;
+
+    private boolean accelere = true;
+
+    /**
+     * Zone du panneau à redessiner dans tampon, [saleX0, saleX1[ x
+     * [saleY0, saleY1[, vide si rien n'a changé.
+     */
+    private int saleX0, saleY0, saleX1, saleY1;
+
+    private final Object verrouSale = new Object();
+
+    /** Atlas, zoom, origine et fond du contenu de tampon. */
+    private IHMAtlas atlasDessine;
+
+    private int zoomDessine;
+
+    private int origineXDessinee;
+
+    private int origineYDessinee;
+
+    private int fondDessine;
+
+    /** Pixels écrits lors du dernier appel à paintComponent. */
+    private long pixelsDessines;
 
     public cases getCases(int x, int y) {
-        return monde[x][y];
+        if (monde == null) return vueCreuse(x, y);
+        cases[] colonne = monde[x];
+        if (colonne == null) {
+            colonne = new cases[bits.getHauteur()];
+            monde[x] = colonne;
+        }
+        cases vue = colonne[y];
+        if (vue == null) {
+            vue = nouvelleVue(x, y);
+            colonne[y] = vue;
+        }
+        return vue;
 }
+
+    private cases vueCreuse(int x, int y) {
+        if (!bits.estOccupee(x, y)) return new cases(bits, x, y);
+        Integer i = y * bits.getLargeur() + x;
+        cases vue = segmentsCreux.get(i);
+        if (vue == null) {
+            vue = nouvelleVue(x, y);
+            segmentsCreux.put(i, vue);
+        }
+        return vue;
+    }
+
+    private cases nouvelleVue(int x, int y) {
+        if (bits.estOccupee(x, y)) {
+            segmentBateau segment = new segmentBateau(bits, x, y);
+            int k = bits.navireEn(x, y);
+            if (k >= 0) segment.setBateau(navire(k));
+            return segment;
+        }
+        return new cases(bits, x, y);
+    }
     
     public Dimension getMapSize(){
-        //FIXEME: obtenir taille du tableau a 2 dimensions
-        return new Dimension(monde.length, monde.length); 
+        return new Dimension(bits.getLargeur(), bits.getHauteur()); 
+    }
+
+    public grille getGrille() {
+        return bits;
     }
     
     
     public plateau(int largeur, int hauteur) {
-        monde = new cases[largeur][hauteur];
-        for (int j = 0 ; j <  hauteur; j++){
-            for (int i = 0 ; i < largeur; i++){ 
-                monde[i][j] = new cases(null,null);    
+        bits = grille.creer(largeur, hauteur, 0);
+        if (bits.estCreuse()) {
+            monde = null;
+            segmentsCreux = new HashMap<Integer, cases>();
+        } else {
+            monde = new cases[largeur][];
+            segmentsCreux = null;
+        }
+        bits.setEcouteur(this);
+        int cote = IHMAtlas.getCourant().getTailleTuile();
+        setPreferredSize(new Dimension(
+                (int) Math.min((long) largeur * cote, VUE_MAX),
+                (int) Math.min((long) hauteur * cote, VUE_MAX)));
+        MouseAdapter souris = new MouseAdapter() {
+            private int dernierX;
+            private int dernierY;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dernierX = e.getX();
+                dernierY = e.getY();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                deplacer(dernierX - e.getX(), dernierY - e.getY());
+                dernierX = e.getX();
+                dernierY = e.getY();
             }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                setZoom(zoom + e.getWheelRotation(), e.getX(), e.getY());
+            }
+        };
+        addMouseListener(souris);
+        addMouseMotionListener(souris);
+        addMouseWheelListener(souris);
+    }
+
+    /** Côté en pixels d'une case au zoom z, au moins 1. */
+    private static int cote(IHMAtlas atlas, int z) {
+        return (z < atlas.getNiveaux()) ? atlas.coteNiveau(z) : 1;
+    }
+
+    /** Nombre de cases par pixel au zoom z, 1 tant qu'une case fait un pixel ou plus. */
+    private static int parPixel(IHMAtlas atlas, int z) {
+        return (z < atlas.getNiveaux()) ? 1 : 1 << (z - atlas.getNiveaux() + 1);
+    }
+
+    /** Taille en pixels, au zoom z, d'une dimension de n cases. */
+    private static int pixels(IHMAtlas atlas, int z, int n) {
+        int par = parPixel(atlas, z);
+        return (par > 1) ? (n + par - 1) / par : n * cote(atlas, z);
+    }
+
+    /**
+     * @return le plus grand zoom utile : tout le plateau tient dans le
+     *         panneau, ou chaque pixel montre déjà une case sur 2^30.
+     */
+    private int zoomMax(IHMAtlas atlas) {
+        int z = 0;
+        while (z < atlas.getNiveaux() + 29
+                && (pixels(atlas, z, bits.getLargeur()) > Math.max(getWidth(), 1)
+                    || pixels(atlas, z, bits.getHauteur()) > Math.max(getHeight(), 1))) {
+            z++;
         }
+        return z;
     }
-    
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Change le zoom en gardant fixe la case sous le pixel (px;py) du
+     * panneau.
+     * @param z de 0 (tuiles à leur taille) au zoom où tout le plateau est
+     *        visible ; ramené dans ces bornes
+     */
+    public void setZoom(int z, int px, int py) {
+        IHMAtlas atlas = IHMAtlas.getCourant();
+        z = Math.max(0, Math.min(z, zoomMax(atlas)));
+        if (z == zoom) return;
+        // Position sous le pointeur, en cases.
+        double cx = (origineX + px) * (double) parPixel(atlas, zoom) / cote(atlas, zoom);
+        double cy = (origineY + py) * (double) parPixel(atlas, zoom) / cote(atlas, zoom);
+        double facteur = (double) cote(atlas, z) / parPixel(atlas, z);
+        zoom = z;
+        placerOrigine(atlas, (int) (cx * facteur) - px, (int) (cy * facteur) - py);
+    }
+
+    /**
+     * Déplace la vue de (dx;dy) pixels, sans sortir du plateau.
+     */
+    public void deplacer(int dx, int dy) {
+        placerOrigine(IHMAtlas.getCourant(), origineX + dx, origineY + dy);
+    }
+
+    private void placerOrigine(IHMAtlas atlas, int x, int y) {
+        int z = zoom;
+        int maxX = Math.max(0, pixels(atlas, z, bits.getLargeur()) - getWidth());
+        int maxY = Math.max(0, pixels(atlas, z, bits.getHauteur()) - getHeight());
+        origineX = Math.max(0, Math.min(x, maxX));
+        origineY = Math.max(0, Math.min(y, maxY));
+        repaint();
+    }
+
+    /**
+     * @return int[2], x,y de la case sous le pixel (px;py) du panneau au
+     *         zoom courant, null en dehors du plateau
+     */
+    public int[] caseSous(int px, int py) {
+        IHMAtlas atlas = IHMAtlas.getCourant();
+        int z = zoom;
+        long x = (long) (origineX + px) * parPixel(atlas, z) / cote(atlas, z);
+        long y = (long) (origineY + py) * parPixel(atlas, z) / cote(atlas, z);
+        if (px < 0 || py < 0 || x >= bits.getLargeur() || y >= bits.getHauteur()) {
+            return null;
+        }
+        return new int[] {(int) x, (int) y};
+    }
+
+    /**
+     * Demande le repeint du seul rectangle de la case (x;y), s'il est
+     * visible. Peut être appelé depuis n'importe quel thread ; une case
+     * hors de la vue ne coûte ni verrou ni repeint.
+     */
+    @Override
+    public void caseModifiee(int x, int y) {
+        IHMAtlas atlas = IHMAtlas.getCourant();
+        int z = zoom;
+        int cote = cote(atlas, z);
+        int par = parPixel(atlas, z);
+        int px = x / par * cote - origineX;
+        int py = y / par * cote - origineY;
+        if (px + cote <= 0 || py + cote <= 0
+                || px >= getWidth() || py >= getHeight()) {
+            return;
+        }
+        synchronized (verrouSale) {
+            if (saleX0 >= saleX1) {
+                saleX0 = px;
+                saleY0 = py;
+                saleX1 = px + cote;
+                saleY1 = py + cote;
+            } else {
+                saleX0 = Math.min(saleX0, px);
+                saleY0 = Math.min(saleY0, py);
+                saleX1 = Math.max(saleX1, px + cote);
+                saleY1 = Math.max(saleY1, py + cote);
+            }
+        }
+        repaint(px, py, cote, cote);
+    }
+
+    /**
+     * Mode accéléré : l'image du plateau est gardée en mémoire vidéo et
+     * seules les cases modifiées sont redessinées. Sinon tout ce que Swing
+     * demande de repeindre est redessiné depuis la grille.
+     */
+    public void setAccelere(boolean accelere) {
+        this.accelere = accelere;
+        if (!accelere && tampon != null) {
+            tampon.flush();
+            tampon = null;
+        }
+        repaint();
+    }
+
+    public boolean estAccelere() {
+        return accelere;
+    }
+
+    /** Redessine tout le panneau depuis la grille au prochain repeint. */
+    public void redessiner() {
+        synchronized (verrouSale) {
+            saleX0 = 0;
+            saleY0 = 0;
+            saleX1 = getWidth();
+            saleY1 = getHeight();
+        }
+        repaint();
+    }
+
+    /**
+     * Dessine dans vue les cases de la zone demandée par Swing, puis la
+     * recopie à l'écran.
+     */
     @Override
     protected void paintComponent(Graphics g) {
-    
+        super.paintComponent(g);
+        long t0 = mesures.ACTIF ? System.nanoTime() : 0;
+        int w = getWidth();
+        int h = getHeight();
+        if (w <= 0 || h <= 0) return;
+        if (vue == null || vue.largeur() != w || vue.hauteur() != h) {
+            vue = new IHMImage(w, h, BufferedImage.TYPE_INT_RGB);
+        }
+        Rectangle zone = g.getClipBounds();
+        if (zone == null) zone = new Rectangle(0, 0, w, h);
+        zone = zone.intersection(new Rectangle(0, 0, w, h));
+        if (zone.isEmpty()) return;
+        IHMAtlas atlas = IHMAtlas.getCourant();
+        if (accelere && g instanceof Graphics2D) {
+            afficherTampon((Graphics2D) g, atlas, zone, w, h);
+        } else {
+            dessinerZone(atlas, zone);
+            copier(vue.getImage(), g, zone);
+            pixelsDessines = 2L * zone.width * zone.height;
+        }
+        if (mesures.ACTIF) mesures.RENDU_PLATEAU.noter(System.nanoTime() - t0);
+    }
+
+    /**
+     * Met à jour tampon (zones sales, ou tout s'il est neuf, restauré ou si
+     * la vue a bougé) puis en copie la zone à l'écran ; recommence tant que
+     * le contenu de tampon est perdu pendant la copie.
+     */
+    private void afficherTampon(Graphics2D g, IHMAtlas atlas, Rectangle zone,
+                                int w, int h) {
+        Rectangle panneau = new Rectangle(0, 0, w, h);
+        Rectangle aRefaire = null;
+        synchronized (verrouSale) {
+            if (saleX0 < saleX1) {
+                aRefaire = new Rectangle(saleX0, saleY0,
+                                         saleX1 - saleX0, saleY1 - saleY0);
+                saleX1 = saleX0;
+            }
+        }
+        int fond = getBackground().getRGB();
+        boolean vueChangee = atlas != atlasDessine || zoom != zoomDessine
+                || origineX != origineXDessinee || origineY != origineYDessinee
+                || fond != fondDessine;
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        long pixels = 0;
+        do {
+            int etat = (tampon == null) ? VolatileImage.IMAGE_INCOMPATIBLE
+                                        : tampon.validate(gc);
+            if (etat == VolatileImage.IMAGE_INCOMPATIBLE
+                    || tampon.getWidth() != w || tampon.getHeight() != h) {
+                if (tampon != null) tampon.flush();
+                tampon = gc.createCompatibleVolatileImage(w, h);
+                // Une image neuve se dit restaurée à sa première validation.
+                tampon.validate(gc);
+                etat = VolatileImage.IMAGE_RESTORED;
+            }
+            Rectangle refaire = (etat == VolatileImage.IMAGE_RESTORED || vueChangee)
+                    ? panneau
+                    : (aRefaire == null ? null : aRefaire.intersection(panneau));
+            if (refaire != null && !refaire.isEmpty()) {
+                dessinerZone(atlas, refaire);
+                Graphics2D gt = tampon.createGraphics();
+                copier(vue.getImage(), gt, refaire);
+                gt.dispose();
+                pixels += 2L * refaire.width * refaire.height;
+            }
+            copier(tampon, g, zone);
+            pixels += (long) zone.width * zone.height;
+        } while (tampon.contentsLost());
+        atlasDessine = atlas;
+        zoomDessine = zoom;
+        origineXDessinee = origineX;
+        origineYDessinee = origineY;
+        fondDessine = fond;
+        pixelsDessines = pixels;
+    }
+
+    /** Copie la zone de source au même endroit dans g. */
+    private static void copier(Image source, Graphics g, Rectangle zone) {
+        g.drawImage(source, zone.x, zone.y, zone.x + zone.width,
+                    zone.y + zone.height, zone.x, zone.y,
+                    zone.x + zone.width, zone.y + zone.height, null);
+    }
+
+    /**
+     * Remplit la zone de vue ligne par ligne : les tuiles des cases d'une
+     * rangée sont lues une fois dans la grille, puis chaque ligne de
+     * pixels est recopiée des tuiles réduites.
+     */
+    private void dessinerZone(IHMAtlas atlas, Rectangle zone) {
+        int z = Math.min(zoom, zoomMax(atlas));
+        int cote = cote(atlas, z);
+        int par = parPixel(atlas, z);
+        int niveau = Math.min(z, atlas.getNiveaux() - 1);
+        int[][] tuiles = new int[2 * IHMAtlas.ETATS][];
+        for (int type = IHMAtlas.EAU; type <= IHMAtlas.BATEAU; type++) {
+            for (int etat = 0; etat < IHMAtlas.ETATS; etat++) {
+                tuiles[type * IHMAtlas.ETATS + etat] = atlas.pixelsTuile(type, etat, niveau);
+            }
+        }
+        int fond = getBackground().getRGB();
+        int largeur = bits.getLargeur();
+        int hauteur = bits.getHauteur();
+        int ox = origineX + zone.x;
+        int oy = origineY + zone.y;
+        // Cases lues d'une rangée, une par pixel sous un pixel par case :
+        // les colonnes premiere à derniere incluses, une case sur par.
+        int premiere = (par > 1) ? ox : ox / cote;
+        int derniere = (par > 1) ? Math.min(ox + zone.width - 1, (largeur - 1) / par)
+                                 : Math.min(largeur - 1, (ox + zone.width - 1) / cote);
+        int visibles = Math.max(0, derniere - premiere + 1);
+        if (ligne.length < zone.width) ligne = new int[zone.width];
+        if (rangee.length < visibles) rangee = new int[visibles];
+        int rangeeLue = -1;
+        for (int j = 0; j < zone.height; j++) {
+            int py = oy + j;
+            int cy = (int) ((long) py * par / cote);
+            int k = 0;
+            if (cy < hauteur && visibles > 0) {
+                if (cy != rangeeLue) {
+                    for (int c = 0; c < visibles; c++) {
+                        int cx = (premiere + c) * par;
+                        rangee[c] = (bits.estOccupee(cx, cy) ? IHMAtlas.BATEAU : IHMAtlas.EAU)
+                                * IHMAtlas.ETATS
+                                + (bits.aEteTiree(cx, cy) ? IHMAtlas.TOUCHE : IHMAtlas.NORMAL);
+                    }
+                    rangeeLue = cy;
+                }
+                int ty = (par > 1) ? 0 : py % cote;
+                int px = ox;
+                while (k < zone.width) {
+                    int c = ((par > 1) ? px : px / cote) - premiere;
+                    if (c >= visibles) break;
+                    int[] tuile = tuiles[rangee[c]];
+                    if (par > 1) {
+                        ligne[k++] = tuile[0];
+                        px++;
+                    } else {
+                        int tx = px % cote;
+                        int n = Math.min(cote - tx, zone.width - k);
+                        System.arraycopy(tuile, ty * cote + tx, ligne, k, n);
+                        k += n;
+                        px += n;
+                    }
+                }
+            }
+            Arrays.fill(ligne, k, zone.width, fond);
+            vue.ecrireRect(zone.x, zone.y + j, zone.width, 1, ligne, 0, zone.width);
+        }
+    }
+
+    /**
+     * @return le nombre de pixels écrits (vue, tampon et écran) lors du dernier
+     *         dessin, pour vérifier qu'un tir ne redessine qu'une case.
+     */
+    public long getPixelsDessines() {
+        return pixelsDessines;
     }
     
     /*
@@ -41,20 +517,126 @@ public class plateau extends JPanel{
     */
     
     
+    /**
+     * Pose elem à partir de (x;y) selon son orientation, si le bateau tient
+     * dans le plateau sans en chevaucher un autre.
+     * @return false si le placement est impossible
+     */
     public boolean tryPlace(int x, int y, bateau elem)
     {
-        
-        return false;
+        int taille = elem.getTaille();
+        boolean horizontal = elem.isHorizontal();
+        if (!bits.placer(x, y, taille, horizontal)) return false;
+        elem.setPosition(x, y);
+        int numero = bits.nombreNavires() - 1;
+        elem.attacher(bits, numero);
+        ranger(numero, elem);
+        flotte.add(elem);
+        for (int k = 0; k < taille; k++) {
+            oublierVue(horizontal ? x + k : x, horizontal ? y : y + k);
+        }
+        return true;
+    }
+
+    /**
+     * Place aléatoirement toute la flotte sur le plateau, qui doit être vide.
+     * Les orientations des bateaux sont choisies par le tirage.
+     * @return false si le plateau porte déjà des bateaux ou si la flotte ne
+     *         rentre pas ; rien n'est alors posé
+     */
+    public boolean placerFlotte(bateau[] bateaux, SplittableRandom rand) {
+        if (bits.nombreNavires() != 0) return false;
+        int[] tailles = new int[bateaux.length];
+        for (int b = 0; b < bateaux.length; b++) {
+            tailles[b] = bateaux[b].getTaille();
+        }
+        int[] disposition = new int[3 * bateaux.length];
+        placementFlotte generateur =
+                new placementFlotte(bits.getLargeur(), bits.getHauteur(), tailles);
+        if (!generateur.generer(rand, disposition)) return false;
+        for (int b = 0; b < bateaux.length; b++) {
+            bateaux[b].setHorizontal(disposition[3 * b + 2] != 0);
+            if (!tryPlace(disposition[3 * b], disposition[3 * b + 1], bateaux[b])) {
+                throw new IllegalStateException("bateau " + b
+                        + " impossible à poser sur le plateau vide");
+            }
+        }
+        return true;
+    }
+
+    public List<bateau> getFlotte() {
+        return flotte;
+    }
+
+    /**
+     * @return le bateau numéro k de la grille, y compris s'il a été posé
+     *         directement sur la grille.
+     */
+    public bateau navire(int k) {
+        bateau b = (k < parNumero.length) ? parNumero[k] : null;
+        if (b == null) {
+            b = new bateau(bits, k);
+            ranger(k, b);
+        }
+        return b;
+    }
+
+    private void ranger(int k, bateau b) {
+        if (k >= parNumero.length) {
+            parNumero = Arrays.copyOf(parNumero, Math.max(2 * parNumero.length, k + 1));
+        }
+        parNumero[k] = b;
+    }
+
+    /** Une vue déjà créée sur une case qui change de nature est jetée. */
+    private void oublierVue(int x, int y) {
+        if (monde == null) {
+            segmentsCreux.remove(y * bits.getLargeur() + x);
+        } else if (monde[x] != null) {
+            monde[x][y] = null;
+        }
     }
     
+    /**
+     * Dessine une grille, plateau entier visible, dans un fichier PNG d'au
+     * plus VUE_MAX pixels de côté ; sans fenêtre, utilisable en mode
+     * headless.
+     * @param source grille dont les bateaux et les tirs sont recopiés
+     */
+    public static void ecrireApercu(grille source, File fichier) throws IOException {
+        plateau vue = new plateau(source.getLargeur(), source.getHauteur());
+        grille copie = vue.getGrille();
+        for (int k = 0; k < source.nombreNavires(); k++) {
+            copie.placer(source.navireX(k), source.navireY(k),
+                         source.navireTaille(k), source.navireHorizontal(k));
+        }
+        for (int y = 0; y < source.getHauteur(); y++) {
+            for (int x = 0; x < source.getLargeur(); x++) {
+                if (source.aEteTiree(x, y)) copie.tirer(x, y);
+            }
+        }
+        Dimension taille = vue.getPreferredSize();
+        vue.setSize(taille);
+        vue.setZoom(Integer.MAX_VALUE, 0, 0);
+        vue.setAccelere(false);
+        BufferedImage image = new BufferedImage(taille.width, taille.height,
+                                                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        vue.paintComponent(g);
+        g.dispose();
+        ImageIO.write(image, "png", fichier);
+    }
+
     /**
      * 
-     * @param x1
-     * @param y1
-     * @return int[2], x,y
+     * @param x1 abscisse en pixels dans le panneau
+     * @param y1 ordonnée en pixels dans le panneau
+     * @return int[2], x,y de la case sous le point, selon l'atlas courant,
+     *         pour une vue au zoom 0 sans déplacement (voir caseSous)
      */
     public static int[] JPanelCoordinateToMapCoordinate(int x1, int y1)
     {
-        return new int[2];
+        int cote = IHMAtlas.getCourant().getTailleTuile();
+        return new int[] {x1 / cote, y1 / cote};
     }
 }
@@ -0,0 +1,127 @@
+
+import java.nio.ByteBuffer;
+
+/**
+ * Protocole binaire entre serveur et clientDistant.
+ * <p>Chaque trame commence par un short donnant la longueur de ce qui suit
+ * (type compris), puis un octet de type ; tout est en ordre réseau
+ * (gros-boutiste). Trames du client :
+ * <pre>
+ *   REJOINDRE   int code, byte niveau
+ *               (niveau 0 : contre l'autre client du même code,
+ *                niveau 1 à NIVEAU_MAX : contre un ordinateur du serveur)
+ *   TIR         int x, int y
+ *   QUITTER
+ * </pre>
+ * Trames du serveur :
+ * <pre>
+ *   DEBUT       int partie, byte numéro (1 ou 2), int largeur, int hauteur,
+ *               short nombre de bateaux, puis par bateau :
+ *               int x, int y, short taille, byte horizontal
+ *   RESULTAT    byte tireur (1 ou 2), int x, int y, byte résultat,
+ *               byte suite (EN_COURS, GAGNE, PERDU)
+ *   ERREUR      byte code
+ * </pre>
+ * Le joueur 1 tire le premier ; chaque client reçoit les résultats de ses
+ * tirs comme de ceux de son adversaire.
+ */
+public class protocole {
+
+    public static final byte REJOINDRE = 1;
+    public static final byte TIR = 2;
+    public static final byte QUITTER = 3;
+
+    public static final byte DEBUT = 10;
+    public static final byte RESULTAT = 11;
+    public static final byte ERREUR = 12;
+
+    /** Suite d'un RESULTAT : la partie continue. */
+    public static final byte EN_COURS = 0;
+    /** Suite d'un RESULTAT : le destinataire a gagné. */
+    public static final byte GAGNE = 1;
+    /** Suite d'un RESULTAT : le destinataire a perdu. */
+    public static final byte PERDU = 2;
+
+    /** Erreur : trame inconnue ou mal formée. */
+    public static final byte TRAME_INVALIDE = 1;
+    /** Erreur : ce n'est pas au client de tirer. */
+    public static final byte PAS_SON_TOUR = 2;
+    /** Erreur : le client n'est dans aucune partie. */
+    public static final byte SANS_PARTIE = 3;
+    /** Erreur : l'adversaire a quitté la partie. */
+    public static final byte ABANDON = 4;
+    /** Erreur : le code de partie est déjà pris par deux clients. */
+    public static final byte COMPLET = 5;
+    /** Erreur : les flottes de la partie n'ont pas pu être placées. */
+    public static final byte PLACEMENT_IMPOSSIBLE = 6;
+    /** Erreur : niveau demandé hors de [0, NIVEAU_MAX]. */
+    public static final byte NIVEAU_INVALIDE = 7;
+
+    /** Plus haut niveau d'ordinateur qu'un client peut demander. */
+    public static final int NIVEAU_MAX = 4;
+
+    /** Longueur maximale d'une trame du client, en-tête compris. */
+    public static final int TRAME_CLIENT_MAX = 2 + 1 + 4 + 4;
+
+    /** Longueur d'une trame RESULTAT, en-tête compris. */
+    public static final int TRAME_RESULTAT = 2 + 1 + 1 + 4 + 4 + 1 + 1;
+
+    private protocole() {
+    }
+
+    /**
+     * @return la longueur de la trame dont le type est donné, en-tête
+     *         compris, ou -1 si le client ne peut pas l'envoyer.
+     */
+    static int longueurClient(byte type) {
+        switch (type) {
+            case REJOINDRE : return 2 + 1 + 4 + 1;
+            case TIR : return 2 + 1 + 4 + 4;
+            case QUITTER : return 2 + 1;
+            default : return -1;
+        }
+    }
+
+    public static void rejoindre(ByteBuffer b, int code, int niveau) {
+        b.putShort((short) (1 + 4 + 1)).put(REJOINDRE).putInt(code).put((byte) niveau);
+    }
+
+    public static void tir(ByteBuffer b, int x, int y) {
+        b.putShort((short) (1 + 4 + 4)).put(TIR).putInt(x).putInt(y);
+    }
+
+    public static void quitter(ByteBuffer b) {
+        b.putShort((short) 1).put(QUITTER);
+    }
+
+    /**
+     * @return la longueur de la trame DEBUT pour une grille de n bateaux.
+     */
+    static int longueurDebut(int n) {
+        return 2 + 1 + 4 + 1 + 4 + 4 + 2 + 11 * n;
+    }
+
+    static void debut(ByteBuffer b, int partie, int numero, grille g) {
+        int n = g.nombreNavires();
+        b.putShort((short) (longueurDebut(n) - 2)).put(DEBUT);
+        b.putInt(partie).put((byte) numero);
+        b.putInt(g.getLargeur()).putInt(g.getHauteur());
+        b.putShort((short) n);
+        for (int k = 0; k < n; k++) {
+            b.putInt(g.navireX(k)).putInt(g.navireY(k));
+            b.putShort((short) g.navireTaille(k));
+            b.put((byte) (g.navireHorizontal(k) ? 1 : 0));
+        }
+    }
+
+    static void resultat(ByteBuffer b, int tireur, int x, int y, int resultat,
+                         int suite) {
+        b.putShort((short) (TRAME_RESULTAT - 2)).put(RESULTAT);
+        b.put((byte) tireur).putInt(x).putInt(y);
+        b.put((byte) resultat).put((byte) suite);
+    }
+
+    static void erreur(ByteBuffer b, int code) {
+        b.putShort((short) 2).put(ERREUR).put((byte) code);
+    }
+}
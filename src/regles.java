@@ -0,0 +1,151 @@
+
+import java.util.Arrays;
+
+/**
+ * Règles d'une partie : dimensions du plateau rectangulaire et longueurs
+ * des bateaux de chaque flotte.
+ * <p>Les plateaux vont jusqu'à MAX_COTE cases de côté. Les grilles sont
+ * créées par nouvelleGrille, qui choisit seule une grille creuse pour les
+ * très grands plateaux peu remplis (voir grille.creer).
+ * <p>Une règle s'écrit <code>largeur x hauteur : longueurs</code>, par
+ * exemple <code>10x10:5,4,3,3,2</code> pour la partie classique.
+ */
+public class regles {
+
+    /** Plus grand côté de plateau accepté. */
+    public static final int MAX_COTE = 10000;
+
+    public static final regles STANDARD =
+            new regles(10, 10, placementFlotte.FLOTTE_STANDARD);
+
+    private final int largeur;
+
+    private final int hauteur;
+
+    private final int[] flotte;
+
+    private final long casesBateaux;
+
+    /**
+     * @throws IllegalArgumentException si les dimensions sortent de
+     *         [1, MAX_COTE], si un bateau ne tient pas dans le plateau ou
+     *         si la flotte couvre plus de la moitié des cases
+     */
+    public regles(int largeur, int hauteur, int[] flotte) {
+        if (largeur < 1 || hauteur < 1 || largeur > MAX_COTE || hauteur > MAX_COTE) {
+            throw new IllegalArgumentException("dimensions invalides : "
+                    + largeur + " x " + hauteur);
+        }
+        if (flotte.length == 0) {
+            throw new IllegalArgumentException("flotte vide");
+        }
+        long somme = 0;
+        for (int taille : flotte) {
+            if (taille < 1 || taille > Math.max(largeur, hauteur)) {
+                throw new IllegalArgumentException("bateau de longueur " + taille
+                        + " impossible sur " + largeur + " x " + hauteur);
+            }
+            somme += taille;
+        }
+        // Au-delà, le placement aléatoire échoue trop souvent.
+        if (2 * somme > (long) largeur * hauteur) {
+            throw new IllegalArgumentException("flotte trop grande pour "
+                    + largeur + " x " + hauteur);
+        }
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+        this.flotte = flotte.clone();
+        this.casesBateaux = somme;
+    }
+
+    /**
+     * Relit une règle écrite comme toString, par exemple
+     * <code>1000x500:5,4,4,3,3,3,2</code> ; sans flotte, c'est la flotte
+     * classique.
+     */
+    public static regles lire(String texte) {
+        String[] parties = texte.trim().split("\\s*:\\s*");
+        String[] dimensions = parties[0].split("\\s*[xX]\\s*");
+        if (dimensions.length != 2 || parties.length > 2) {
+            throw new IllegalArgumentException("règle invalide : " + texte);
+        }
+        int[] flotte = placementFlotte.FLOTTE_STANDARD;
+        if (parties.length == 2) {
+            String[] longueurs = parties[1].split("\\s*,\\s*");
+            flotte = new int[longueurs.length];
+            for (int b = 0; b < flotte.length; b++) {
+                flotte[b] = Integer.parseInt(longueurs[b]);
+            }
+        }
+        return new regles(Integer.parseInt(dimensions[0]),
+                          Integer.parseInt(dimensions[1]), flotte);
+    }
+
+    public int getLargeur() {
+        return largeur;
+    }
+
+    public int getHauteur() {
+        return hauteur;
+    }
+
+    /**
+     * @return une copie des longueurs des bateaux.
+     */
+    public int[] getFlotte() {
+        return flotte.clone();
+    }
+
+    /**
+     * @return le nombre total de segments d'une flotte.
+     */
+    public long getCasesBateaux() {
+        return casesBateaux;
+    }
+
+    /**
+     * @return vrai si les grilles de ces règles sont creuses.
+     */
+    public boolean estCreuse() {
+        return grille.convientCreuse((long) largeur * hauteur, casesBateaux);
+    }
+
+    /**
+     * @return une grille vide aux dimensions des règles.
+     */
+    public grille nouvelleGrille() {
+        return grille.creer(largeur, hauteur, casesBateaux);
+    }
+
+    /**
+     * @return un générateur de dispositions de la flotte, à ne pas
+     *         partager entre threads.
+     */
+    public placementFlotte nouveauPlacement() {
+        return new placementFlotte(largeur, hauteur, flotte);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof regles)) return false;
+        regles r = (regles) o;
+        return largeur == r.largeur && hauteur == r.hauteur
+                && Arrays.equals(flotte, r.flotte);
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * largeur + hauteur) * 31 + Arrays.hashCode(flotte);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(largeur).append('x').append(hauteur).append(':');
+        for (int b = 0; b < flotte.length; b++) {
+            if (b > 0) sb.append(',');
+            sb.append(flotte[b]);
+        }
+        return sb.toString();
+    }
+}
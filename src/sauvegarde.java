@@ -0,0 +1,290 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Format binaire versionné de l'état complet d'une partie, lu et écrit par
+ * des fichiers projetés en mémoire, sans boite de dialogue.
+ * <p>Contenu, en ordre réseau (gros-boutiste) :
+ * <pre>
+ *   int   MAGIE ("BNAV")        short VERSION
+ *   byte  drapeaux (bit 0 : en cours, bit 1 : au joueur 1)
+ *   int   tours                 long  graine
+ *   puis pour chacun des deux joueurs :
+ *   byte  genre (0 humain, 1 ordinateur)   byte niveau
+ *   long  graine de l'ordinateur (0 pour un humain ; depuis la version 3)
+ *   int   n, int[n] état de chasse du niveau 2 (ordinateur seulement,
+ *         depuis la version 3 ; voir ordinateur.getChasse)
+ *   int   largeur               int   hauteur
+ *   int   nombre de bateaux, puis par bateau :
+ *         int x, int y, short taille, short restant, byte horizontal
+ *   cases touchées, puis cases ratées, chacune sous la plus courte de
+ *   deux formes : byte 0 et long[] (1 bit par case), ou byte 1, int
+ *   nombre et int[] indices croissants
+ * </pre>
+ * Les cases occupées se déduisent des bateaux : une partie coûte au plus
+ * 2 bits par case et par joueur, et au plus 4 octets par tir, plus 13
+ * octets par bateau ; une partie sur une grille immense mais peu visée
+ * reste petite. Les versions précédentes se relisent encore : en version
+ * 1 les tirs étaient toujours deux ensembles de bits, et jusqu'à la
+ * version 2 un ordinateur relu recevait une graine neuve.
+ */
+public class sauvegarde {
+
+    public static final int MAGIE = 0x424E4156;
+
+    public static final short VERSION = 3;
+
+    private static final int ENTETE = 4 + 2 + 1 + 4 + 8;
+
+    /** Taille maximale d'une projection lors d'une écriture groupée. */
+    private static final long FENETRE = 1L << 30;
+
+    private sauvegarde() {
+    }
+
+    /**
+     * @return le nombre d'octets occupés par la partie dans ce format.
+     */
+    public static int taille(jeu partie) {
+        return ENTETE + taille(partie.getJoueur1()) + taille(partie.getJoueur2());
+    }
+
+    private static int taille(joueur j) {
+        grille g = j.getGrille();
+        int chasse = (j instanceof ordinateur)
+                ? 4 + 4 * ((ordinateur) j).getChasse().length : 0;
+        return 1 + 1 + 8 + chasse + 4 + 4 + 4 + 13 * g.nombreNavires() + g.tailleTirs();
+    }
+
+    /**
+     * Ecrit la partie à la position courante du tampon.
+     */
+    public static void ecrire(jeu partie, ByteBuffer tampon) {
+        tampon.putInt(MAGIE);
+        tampon.putShort(VERSION);
+        int drapeaux = (partie.enCours() ? 1 : 0) | (partie.isTourJoueur1() ? 2 : 0);
+        tampon.put((byte) drapeaux);
+        tampon.putInt(partie.getTours());
+        tampon.putLong(partie.getGraine());
+        ecrire(partie.getJoueur1(), tampon);
+        ecrire(partie.getJoueur2(), tampon);
+    }
+
+    private static void ecrire(joueur j, ByteBuffer tampon) {
+        boolean machine = j instanceof ordinateur;
+        tampon.put((byte) (machine ? 1 : 0));
+        tampon.put((byte) (machine ? ((ordinateur) j).getNiveauDifficulte() : 0));
+        tampon.putLong(machine ? ((ordinateur) j).getGraine() : 0);
+        if (machine) {
+            int[] chasse = ((ordinateur) j).getChasse();
+            tampon.putInt(chasse.length);
+            for (int v : chasse) tampon.putInt(v);
+        }
+        grille g = j.getGrille();
+        tampon.putInt(g.getLargeur());
+        tampon.putInt(g.getHauteur());
+        tampon.putInt(g.nombreNavires());
+        for (int k = 0; k < g.nombreNavires(); k++) {
+            tampon.putInt(g.navireX(k));
+            tampon.putInt(g.navireY(k));
+            tampon.putShort((short) g.navireTaille(k));
+            tampon.putShort((short) g.navireRestant(k));
+            tampon.put((byte) (g.navireHorizontal(k) ? 1 : 0));
+        }
+        g.ecrireTirs(tampon);
+    }
+
+    /**
+     * Relit une partie à la position courante du tampon. Les ordinateurs
+     * relisent les tirs déjà joués à leur premier coup.
+     * @throws IllegalArgumentException si le tampon ne contient pas une
+     *         sauvegarde de version connue
+     */
+    public static jeu lire(ByteBuffer tampon) {
+        if (tampon.getInt() != MAGIE) {
+            throw new IllegalArgumentException("pas une sauvegarde de partie");
+        }
+        short version = tampon.getShort();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("version de sauvegarde inconnue : "
+                    + version);
+        }
+        int drapeaux = tampon.get();
+        int tours = tampon.getInt();
+        long graine = tampon.getLong();
+        joueur j1 = lireJoueur(tampon, version);
+        joueur j2 = lireJoueur(tampon, version);
+        reprendre(j1, j2.getGrille());
+        reprendre(j2, j1.getGrille());
+        jeu partie = new jeu(j1, j2);
+        partie.setGraine(graine);
+        partie.restaurer((drapeaux & 1) != 0, (drapeaux & 2) != 0, tours);
+        return partie;
+    }
+
+    private static joueur lireJoueur(ByteBuffer tampon, int version) {
+        int genre = tampon.get();
+        int niveau = tampon.get();
+        long graine = (version >= 3) ? tampon.getLong() : new SplittableRandom().nextLong();
+        int[] chasse = new int[0];
+        if (version >= 3 && genre == 1) {
+            int n = tampon.getInt();
+            if (n < 0 || n > tampon.remaining() / 4) {
+                throw new IllegalArgumentException("état de chasse invalide : " + n);
+            }
+            chasse = new int[n];
+            for (int k = 0; k < n; k++) chasse[k] = tampon.getInt();
+        }
+        grille g = grille.creer(tampon.getInt(), tampon.getInt(), 0);
+        int nombre = tampon.getInt();
+        for (int k = 0; k < nombre; k++) {
+            int x = tampon.getInt();
+            int y = tampon.getInt();
+            int taille = tampon.getShort();
+            tampon.getShort(); // restant : redonné par les touches
+            boolean horizontal = tampon.get() != 0;
+            if (!g.placer(x, y, taille, horizontal)) {
+                throw new IllegalArgumentException("bateau invalide en ("
+                        + x + ";" + y + ")");
+            }
+        }
+        g.lireTirs(tampon, version == 1);
+        if (genre != 1) return new joueur(g);
+        ordinateur machine = new ordinateur(niveau, g, graine);
+        machine.setChasse(chasse);
+        return machine;
+    }
+
+    private static void reprendre(joueur j, grille adverse) {
+        if (!(j instanceof ordinateur)) return;
+        ordinateur machine = (ordinateur) j;
+        int[] tailles = new int[adverse.nombreNavires()];
+        for (int k = 0; k < tailles.length; k++) {
+            tailles[k] = adverse.navireTaille(k);
+        }
+        if (tailles.length > 0) machine.setFlotteAdverse(tailles);
+    }
+
+    /**
+     * Enregistre une partie dans un fichier, remplacé s'il existe.
+     */
+    public static void enregistrer(jeu partie, File fichier) throws IOException {
+        List<jeu> une = new ArrayList<jeu>(1);
+        une.add(partie);
+        enregistrerTout(une, fichier);
+    }
+
+    /**
+     * Relit la partie enregistrée par enregistrer.
+     */
+    public static jeu charger(File fichier) throws IOException {
+        List<jeu> parties = chargerTout(fichier);
+        if (parties.size() != 1) {
+            throw new IOException("le fichier contient " + parties.size()
+                    + " parties : " + fichier);
+        }
+        return parties.get(0);
+    }
+
+    /**
+     * Enregistre des parties à la suite dans un fichier : un entier donne
+     * leur nombre, puis chaque partie est précédée de sa longueur en
+     * octets. Le fichier est projeté en mémoire par fenêtres d'au plus 1 Go.
+     */
+    public static void enregistrerTout(List<jeu> parties, File fichier)
+            throws IOException {
+        FileChannel canal = FileChannel.open(fichier.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long position = 0;
+            MappedByteBuffer tampon = canal.map(FileChannel.MapMode.READ_WRITE,
+                                                position, 4);
+            tampon.putInt(parties.size());
+            position += 4;
+            int debut = 0;
+            while (debut < parties.size()) {
+                long fenetre = 0;
+                int fin = debut;
+                while (fin < parties.size()) {
+                    long suivante = 4 + taille(parties.get(fin));
+                    if (fin > debut && fenetre + suivante > FENETRE) break;
+                    fenetre += suivante;
+                    fin++;
+                }
+                tampon = canal.map(FileChannel.MapMode.READ_WRITE, position,
+                                   fenetre);
+                for (int i = debut; i < fin; i++) {
+                    tampon.putInt(taille(parties.get(i)));
+                    ecrire(parties.get(i), tampon);
+                }
+                position += fenetre;
+                debut = fin;
+            }
+        } finally {
+            canal.close();
+        }
+    }
+
+    /**
+     * Relit toutes les parties écrites par enregistrerTout.
+     * @throws IOException si le fichier est vide, tronqué ou corrompu
+     */
+    public static List<jeu> chargerTout(File fichier) throws IOException {
+        FileChannel canal = FileChannel.open(fichier.toPath(),
+                                             StandardOpenOption.READ);
+        try {
+            long longueur = canal.size();
+            if (longueur < 4) {
+                throw new IOException("sauvegarde vide : " + fichier);
+            }
+            long base = 0;
+            MappedByteBuffer tampon = canal.map(FileChannel.MapMode.READ_ONLY,
+                    base, Math.min(longueur, FENETRE));
+            int nombre = tampon.getInt();
+            // Chaque partie occupe au moins les 4 octets de sa taille.
+            if (nombre < 0 || nombre > (longueur - 4) / 4) {
+                throw new IOException("sauvegarde invalide : " + fichier
+                        + " (" + nombre + " parties)");
+            }
+            List<jeu> parties = new ArrayList<jeu>(nombre);
+            for (int i = 0; i < nombre; i++) {
+                if (tampon.remaining() < 4) {
+                    base += tampon.position();
+                    tampon = canal.map(FileChannel.MapMode.READ_ONLY, base,
+                            Math.min(longueur - base, FENETRE));
+                }
+                int taille = tampon.getInt();
+                if (taille < 0 || taille > longueur - base - tampon.position()) {
+                    throw new IOException("sauvegarde tronquée : " + fichier
+                            + " (partie " + i + ")");
+                }
+                if (tampon.remaining() < taille) {
+                    // Partie à cheval sur deux fenêtres : on reprojette.
+                    base += tampon.position();
+                    tampon = canal.map(FileChannel.MapMode.READ_ONLY, base,
+                            Math.min(longueur - base, Math.max(FENETRE, taille)));
+                }
+                try {
+                    parties.add(lire(tampon));
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException("sauvegarde invalide : " + fichier, ex);
+                }
+            }
+            return parties;
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("sauvegarde tronquée : " + fichier, ex);
+        } finally {
+            canal.close();
+        }
+    }
+}
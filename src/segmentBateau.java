@@ -4,16 +4,29 @@ public class segmentBateau extends cases {
 
     public segmentBateau(IHMImage touche, IHMImage normal) {
         super(touche, normal);
+        type = IHMAtlas.BATEAU;
+    }
+
+    public segmentBateau(grille source, int x, int y) {
+        super(source, x, y);
+        type = IHMAtlas.BATEAU;
     }
     
+    void setBateau(bateau parBateau) {
+        appartientA = parBateau;
+    }
+
+    public bateau getBateau() {
+        return appartientA;
+    }
+
     @Override
     public  void toucher() {
-        if(touche == false)
-        appartientA.touche();
-        touche = true;
+        if (!estTouche() && appartientA != null) appartientA.touche();
+        super.toucher();
     }
     
     public boolean getStatus() {
-     return touche;
+     return estTouche();
     }    
 }
@@ -0,0 +1,624 @@
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+
+/**
+ * Serveur de parties en réseau : un seul thread et un sélecteur NIO
+ * servent toutes les connexions, avec le protocole binaire de protocole.
+ * <p>Les tirs reçus ne sont pas joués dès leur lecture : ils s'accumulent
+ * pendant un tick (setTick), puis sont tous résolus d'un coup dans l'ordre
+ * d'arrivée, et les réponses de toutes les parties sont envoyées ensemble.
+ * Le coût des appels système est ainsi partagé entre toutes les parties
+ * actives.
+ * <p>Une connexion inactive ne coûte que son canal et un petit tampon
+ * d'entrée ; le tampon de sortie n'est alloué qu'au premier envoi et reste
+ * de la taille de la plus grande trame envoyée. Les flottes sont placées
+ * par le serveur, chaque partie à partir de simulateur.graineDePartie.
+ * <p>La sortie d'une connexion est bornée : tant qu'elle a des octets en
+ * attente, ses trames ne sont plus lues, et au-delà de SORTIE_MAX octets
+ * non envoyés (client qui ne lit plus) elle est fermée.
+ * <p>Les coups des ordinateurs ne sont pas choisis par le thread du
+ * sélecteur, qu'un niveau 4 bloquerait plusieurs millisecondes : chaque
+ * partie contre un ordinateur a sa file dans un ordonnanceur sur le pool
+ * commun, et les cibles choisies reviennent au sélecteur, qui les joue.
+ * <p>Toutes les méthodes, sauf arreter, doivent être appelées depuis le
+ * thread qui exécute lancer.
+ */
+public class serveur implements Closeable {
+
+    /** Octets en attente d'envoi au-delà desquels une connexion est fermée. */
+    public static final int SORTIE_MAX = 64 * 1024;
+
+    /** Durée par défaut d'un tick, en nanosecondes. */
+    public static final long TICK_DEFAUT = 2000000L;
+
+    private final Selector selecteur;
+
+    private final ServerSocketChannel ecoute;
+
+    private final regles regle;
+
+    private final int largeur;
+
+    private final placementFlotte generateur;
+
+    private final int[] disposition;
+
+    private long graine = new SplittableRandom().nextLong();
+
+    private long tick = TICK_DEFAUT;
+
+    private volatile boolean arret;
+
+    /** Clients qui attendent un adversaire, par code de partie. */
+    private final HashMap<Integer, connexion> enAttente =
+            new HashMap<Integer, connexion>();
+
+    /** Tirs reçus pendant le tick en cours : connexion, x, y. */
+    private connexion[] tireurs = new connexion[256];
+
+    private int[] tirs = new int[2 * 256];
+
+    private int nbTirs;
+
+    /** Instant où les tirs en attente seront résolus. */
+    private long finTick;
+
+    /** Connexions qui ont des octets à envoyer à la fin du tick. */
+    private final ArrayList<connexion> aVider = new ArrayList<connexion>();
+
+    private int nbParties;
+
+    private int nbConnexions;
+
+    /** Choix des cibles des ordinateurs, hors du thread du sélecteur. */
+    private final ordonnanceur machines = new ordonnanceur(ForkJoinPool.commonPool());
+
+    /** Cibles choisies par les ordinateurs, à jouer par le sélecteur. */
+    private final ConcurrentLinkedQueue<reponse> reponses =
+            new ConcurrentLinkedQueue<reponse>();
+
+    /**
+     * Ouvre le serveur sur le port donné (0 pour un port libre).
+     */
+    public serveur(int port, int largeur, int hauteur, int[] flotte)
+            throws IOException {
+        this(port, new regles(largeur, hauteur, flotte));
+    }
+
+    /**
+     * Ouvre le serveur sur le port donné (0 pour un port libre), toutes
+     * ses parties suivant les mêmes règles.
+     */
+    public serveur(int port, regles regle) throws IOException {
+        this.regle = regle;
+        this.largeur = regle.getLargeur();
+        this.generateur = regle.nouveauPlacement();
+        this.disposition = new int[3 * generateur.nombreBateaux()];
+        selecteur = Selector.open();
+        ecoute = ServerSocketChannel.open();
+        ecoute.bind(new InetSocketAddress(port), 1024);
+        ecoute.configureBlocking(false);
+        ecoute.register(selecteur, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return ecoute.socket().getLocalPort();
+    }
+
+    public long getGraine() {
+        return graine;
+    }
+
+    /**
+     * Fixe la graine maîtresse dont sont dérivées les flottes et les
+     * ordinateurs de chaque partie.
+     */
+    public void setGraine(long graine) {
+        this.graine = graine;
+    }
+
+    /**
+     * @param nanos durée pendant laquelle les tirs reçus sont accumulés
+     *        avant d'être résolus ensemble, à compter du premier tir du
+     *        tick ; 0 pour les résoudre après chaque passage dans le
+     *        sélecteur.
+     */
+    public void setTick(long nanos) {
+        tick = nanos;
+    }
+
+    /**
+     * @return le nombre de connexions ouvertes.
+     */
+    public int getConnexions() {
+        return nbConnexions;
+    }
+
+    /**
+     * @return le nombre de parties commencées depuis le lancement.
+     */
+    public int getParties() {
+        return nbParties;
+    }
+
+    /**
+     * Demande l'arrêt de lancer ; peut être appelée depuis n'importe quel
+     * thread.
+     */
+    public void arreter() {
+        arret = true;
+        selecteur.wakeup();
+    }
+
+    /**
+     * Une connexion cliente et la partie qu'elle joue.
+     */
+    private static class connexion {
+        final SocketChannel canal;
+        SelectionKey cle;
+        final ByteBuffer entree = ByteBuffer.allocate(2 * protocole.TRAME_CLIENT_MAX);
+        ByteBuffer sortie;
+        session partie;
+        /** 1 ou 2 dans la partie en cours. */
+        int numero;
+        /** Code attendu dans enAttente, ou -1. */
+        int code = -1;
+        /** Vrai si la connexion est déjà dans aVider. */
+        boolean enFile;
+
+        connexion(SocketChannel canal) {
+            this.canal = canal;
+        }
+
+        /**
+         * @return un tampon de sortie où écrire n octets de plus.
+         */
+        ByteBuffer sortie(int n) {
+            if (sortie == null) {
+                sortie = ByteBuffer.allocate(Math.max(64, n));
+            } else if (sortie.remaining() < n) {
+                ByteBuffer plus = ByteBuffer.allocate(
+                        Math.max(2 * sortie.capacity(), sortie.position() + n));
+                sortie.flip();
+                plus.put(sortie);
+                sortie = plus;
+            }
+            return sortie;
+        }
+    }
+
+    /**
+     * Partie entre deux connexions, ou entre une connexion et un
+     * ordinateur du serveur (c2 nul).
+     */
+    private static class session {
+        final int id;
+        final jeu partie;
+        final connexion c1;
+        final connexion c2;
+        /** File des coups de l'ordinateur, si c2 est nul. */
+        ordonnanceur.file machine;
+
+        session(int id, jeu partie, connexion c1, connexion c2) {
+            this.id = id;
+            this.partie = partie;
+            this.c1 = c1;
+            this.c2 = c2;
+        }
+    }
+
+    /** Cible choisie par l'ordinateur d'une session, -1 s'il a échoué. */
+    private static class reponse {
+        final session s;
+        final int cible;
+
+        reponse(session s, int cible) {
+            this.s = s;
+            this.cible = cible;
+        }
+    }
+
+    /**
+     * Sert les clients jusqu'à l'appel d'arreter, puis ferme tout.
+     */
+    public void lancer() throws IOException {
+        try {
+            while (!arret) {
+                if (nbTirs == 0) {
+                    selecteur.select();
+                } else {
+                    long reste = finTick - System.nanoTime();
+                    if (reste > 0) selecteur.select((reste + 999999L) / 1000000L);
+                    else selecteur.selectNow();
+                }
+                Iterator<SelectionKey> i = selecteur.selectedKeys().iterator();
+                while (i.hasNext()) {
+                    SelectionKey cle = i.next();
+                    i.remove();
+                    traiter(cle);
+                }
+                if (nbTirs > 0 && System.nanoTime() - finTick >= 0) {
+                    resoudreTirs();
+                }
+                if (!reponses.isEmpty()) jouerReponses();
+                if (!aVider.isEmpty()) vider();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void traiter(SelectionKey cle) {
+        if (!cle.isValid()) return;
+        if (cle.isAcceptable()) {
+            accepter();
+            return;
+        }
+        connexion c = (connexion) cle.attachment();
+        try {
+            if (cle.isReadable()) lire(c);
+            if (cle.isValid() && cle.isWritable()) ecrire(c);
+        } catch (IOException e) {
+            fermer(c);
+        }
+    }
+
+    private void accepter() {
+        SocketChannel canal;
+        try {
+            while ((canal = ecoute.accept()) != null) {
+                canal.configureBlocking(false);
+                canal.socket().setTcpNoDelay(true);
+                connexion c = new connexion(canal);
+                c.cle = canal.register(selecteur, SelectionKey.OP_READ, c);
+                nbConnexions++;
+            }
+        } catch (IOException e) {
+            // Trop de fichiers ouverts, client parti... : on réessaiera.
+        }
+    }
+
+    private void lire(connexion c) throws IOException {
+        ByteBuffer b = c.entree;
+        int n;
+        while ((n = c.canal.read(b)) > 0) {
+            b.flip();
+            if (!decoder(c)) return;
+            b.compact();
+        }
+        if (n < 0) fermer(c);
+    }
+
+    /**
+     * Traite les trames complètes du tampon d'entrée.
+     * @return false si la connexion a été fermée
+     */
+    private boolean decoder(connexion c) {
+        ByteBuffer b = c.entree;
+        while (b.remaining() >= 3) {
+            int debut = b.position();
+            int longueur = b.getShort(debut) + 2;
+            byte type = b.get(debut + 2);
+            if (protocole.longueurClient(type) != longueur) {
+                envoyerErreur(c, protocole.TRAME_INVALIDE);
+                vider(c);
+                fermer(c);
+                return false;
+            }
+            if (b.remaining() < longueur) break;
+            b.position(debut + 3);
+            switch (type) {
+                case protocole.REJOINDRE :
+                    rejoindre(c, b.getInt(), b.get());
+                    break;
+                case protocole.TIR :
+                    noterTir(c, b.getInt(), b.getInt());
+                    break;
+                default : // QUITTER
+                    vider(c);
+                    fermer(c);
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private void rejoindre(connexion c, int code, int niveau) {
+        if (c.partie != null || c.code >= 0 || code < 0) {
+            envoyerErreur(c, protocole.TRAME_INVALIDE);
+            return;
+        }
+        if (niveau < 0 || niveau > protocole.NIVEAU_MAX) {
+            envoyerErreur(c, protocole.NIVEAU_INVALIDE);
+            return;
+        }
+        if (niveau > 0) {
+            commencer(c, null, niveau);
+            return;
+        }
+        connexion autre = enAttente.remove(code);
+        if (autre == null) {
+            c.code = code;
+            enAttente.put(code, c);
+        } else {
+            autre.code = -1;
+            commencer(autre, c, 0);
+        }
+    }
+
+    /**
+     * Crée la partie de c1 contre c2, ou contre un ordinateur du niveau
+     * donné si c2 est nul, et envoie à chacun sa flotte ; si les flottes
+     * ne peuvent pas être placées, chacun reçoit PLACEMENT_IMPOSSIBLE.
+     */
+    private void commencer(connexion c1, connexion c2, int niveau) {
+        long g = simulateur.graineDePartie(graine, nbParties);
+        SplittableRandom rand = new SplittableRandom(g);
+        grille g1 = regle.nouvelleGrille();
+        grille g2 = regle.nouvelleGrille();
+        if (!generateur.placer(g1, rand, disposition)
+                || !generateur.placer(g2, rand, disposition)) {
+            nbParties++;
+            envoyerErreur(c1, protocole.PLACEMENT_IMPOSSIBLE);
+            if (c2 != null) envoyerErreur(c2, protocole.PLACEMENT_IMPOSSIBLE);
+            return;
+        }
+        joueur j2 = (c2 == null)
+                ? new ordinateur(niveau, g2, rand.split())
+                : new joueur(g2);
+        jeu partie = new jeu(new joueur(g1), j2);
+        partie.setGraine(g);
+        session s = new session(nbParties++, partie, c1, c2);
+        if (c2 == null) s.machine = machines.inscrire(partie);
+        c1.partie = s;
+        c1.numero = 1;
+        protocole.debut(c1.sortie(protocole.longueurDebut(g1.nombreNavires())),
+                        s.id, 1, g1);
+        aVider(c1);
+        if (c2 != null) {
+            c2.partie = s;
+            c2.numero = 2;
+            protocole.debut(c2.sortie(protocole.longueurDebut(g2.nombreNavires())),
+                            s.id, 2, g2);
+            aVider(c2);
+        }
+    }
+
+    private void noterTir(connexion c, int x, int y) {
+        if (c.partie == null) {
+            envoyerErreur(c, protocole.SANS_PARTIE);
+            return;
+        }
+        if (nbTirs == 0) finTick = System.nanoTime() + tick;
+        if (nbTirs == tireurs.length) {
+            tireurs = Arrays.copyOf(tireurs, 2 * nbTirs);
+            tirs = Arrays.copyOf(tirs, 4 * nbTirs);
+        }
+        tireurs[nbTirs] = c;
+        tirs[2 * nbTirs] = x;
+        tirs[2 * nbTirs + 1] = y;
+        nbTirs++;
+    }
+
+    /**
+     * Joue dans l'ordre d'arrivée tous les tirs du tick ; après chaque
+     * tir d'un client contre un ordinateur, l'ordinateur choisit sa
+     * réponse sur le pool (voir jouerReponses).
+     */
+    private void resoudreTirs() {
+        for (int k = 0; k < nbTirs; k++) {
+            connexion c = tireurs[k];
+            tireurs[k] = null;
+            session s = c.partie;
+            // Fermée ou partie finie depuis la réception du tir.
+            if (!c.canal.isOpen()) continue;
+            if (s == null) {
+                envoyerErreur(c, protocole.SANS_PARTIE);
+                continue;
+            }
+            jeu partie = s.partie;
+            if (partie.isTourJoueur1() != (c.numero == 1)) {
+                envoyerErreur(c, protocole.PAS_SON_TOUR);
+                continue;
+            }
+            int x = tirs[2 * k];
+            int y = tirs[2 * k + 1];
+            int resultat = partie.jouer(x, y);
+            if (resultat == grille.HORS_GRILLE || resultat == grille.DEJA_TIRE) {
+                protocole.resultat(c.sortie(protocole.TRAME_RESULTAT), c.numero,
+                                   x, y, resultat, protocole.EN_COURS);
+                aVider(c);
+                continue;
+            }
+            diffuser(s, c.numero, x, y, resultat);
+            if (s.c2 == null && partie.enCours()) choisirReponse(s);
+        }
+        nbTirs = 0;
+    }
+
+    /**
+     * Fait choisir sa cible à l'ordinateur de s sur le pool. Le client ne
+     * peut pas tirer pendant ce temps (ce n'est pas son tour) : seul
+     * l'ordinateur lit alors les grilles de la partie.
+     */
+    private void choisirReponse(final session s) {
+        s.machine.deposer(new ordonnanceur.coup() {
+            @Override
+            public int jouer(jeu p) {
+                return p.getJoueur2().choisirCible(p.getJoueur1());
+            }
+        }).whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer cible, Throwable erreur) {
+                reponses.add(new reponse(s, erreur == null ? cible : -1));
+                selecteur.wakeup();
+            }
+        });
+    }
+
+    /**
+     * Joue les cibles choisies par les ordinateurs depuis le dernier
+     * passage ; celles des parties finies ou abandonnées entre-temps sont
+     * ignorées.
+     */
+    private void jouerReponses() {
+        reponse r;
+        while ((r = reponses.poll()) != null) {
+            session s = r.s;
+            if (s.c1.partie != s || !s.c1.canal.isOpen()) continue;
+            if (r.cible < 0) {
+                // L'ordinateur a échoué : la partie ne peut pas continuer.
+                s.c1.partie = null;
+                envoyerErreur(s.c1, protocole.ABANDON);
+                continue;
+            }
+            int xm = r.cible % largeur;
+            int ym = r.cible / largeur;
+            diffuser(s, 2, xm, ym, s.partie.jouer(xm, ym));
+        }
+    }
+
+    /**
+     * Envoie le résultat d'un tir aux clients de la partie, et les libère
+     * si elle est finie.
+     */
+    private void diffuser(session s, int tireur, int x, int y, int resultat) {
+        jeu partie = s.partie;
+        boolean fini = !partie.enCours();
+        boolean gagne1 = fini && partie.getVainqueur() == partie.getJoueur1();
+        envoyerResultat(s.c1, tireur, x, y, resultat,
+                !fini ? protocole.EN_COURS : gagne1 ? protocole.GAGNE : protocole.PERDU);
+        if (s.c2 != null) {
+            envoyerResultat(s.c2, tireur, x, y, resultat,
+                    !fini ? protocole.EN_COURS : gagne1 ? protocole.PERDU : protocole.GAGNE);
+        }
+        if (fini) {
+            s.c1.partie = null;
+            if (s.c2 != null) s.c2.partie = null;
+        }
+    }
+
+    private void envoyerResultat(connexion c, int tireur, int x, int y,
+                                 int resultat, int suite) {
+        protocole.resultat(c.sortie(protocole.TRAME_RESULTAT), tireur, x, y,
+                           resultat, suite);
+        aVider(c);
+    }
+
+    private void envoyerErreur(connexion c, int code) {
+        protocole.erreur(c.sortie(4), code);
+        aVider(c);
+    }
+
+    private void aVider(connexion c) {
+        if (!c.enFile) {
+            c.enFile = true;
+            aVider.add(c);
+        }
+    }
+
+    /**
+     * Envoie ce qui peut l'être sans bloquer ; le reste partira quand le
+     * canal sera de nouveau prêt en écriture.
+     */
+    private void vider() {
+        for (int k = 0; k < aVider.size(); k++) {
+            connexion c = aVider.get(k);
+            c.enFile = false;
+            if (!c.canal.isOpen()) continue;
+            vider(c);
+            if (c.canal.isOpen() && c.sortie.position() > SORTIE_MAX) fermer(c);
+        }
+        aVider.clear();
+    }
+
+    private void vider(connexion c) {
+        try {
+            ecrire(c);
+        } catch (IOException e) {
+            fermer(c);
+        }
+    }
+
+    /**
+     * Tant qu'il reste des octets à envoyer, la connexion n'est plus lue :
+     * un client qui ne lit pas ses réponses cesse d'en provoquer.
+     */
+    private void ecrire(connexion c) throws IOException {
+        ByteBuffer b = c.sortie;
+        if (b == null) return;
+        b.flip();
+        c.canal.write(b);
+        boolean reste = b.hasRemaining();
+        b.compact();
+        if (!c.cle.isValid()) return;
+        c.cle.interestOps(reste ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Ferme la connexion ; son adversaire éventuel reçoit ABANDON et
+     * redevient libre de rejoindre une autre partie.
+     */
+    private void fermer(connexion c) {
+        if (!c.canal.isOpen()) return;
+        c.cle.cancel();
+        try {
+            c.canal.close();
+        } catch (IOException e) {
+            // Déjà fermée côté système : rien à faire.
+        }
+        nbConnexions--;
+        if (c.code >= 0) enAttente.remove(c.code);
+        session s = c.partie;
+        if (s != null) {
+            connexion autre = (s.c1 == c) ? s.c2 : s.c1;
+            if (autre != null) {
+                autre.partie = null;
+                envoyerErreur(autre, protocole.ABANDON);
+            }
+            c.partie = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SelectionKey cle : selecteur.keys()) {
+            try {
+                cle.channel().close();
+            } catch (IOException e) {
+                // On ferme tout de toute façon.
+            }
+        }
+        selecteur.close();
+        enAttente.clear();
+        nbConnexions = 0;
+    }
+
+    /**
+     * Usage : serveur [port [regles [tick_ms]]]
+     * où regles s'écrit par exemple 10x10:5,4,3,3,2 (voir regles.lire).
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7878;
+        regles r = args.length > 1 ? regles.lire(args[1]) : regles.STANDARD;
+        serveur s = new serveur(port, r);
+        if (args.length > 2) s.setTick(Long.parseLong(args[2]) * 1000000L);
+        System.out.println("serveur à l'écoute sur le port " + s.getPort());
+        s.lancer();
+    }
+}
@@ -0,0 +1,324 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Moteur de parties sans interface : fait s'affronter deux ordinateurs
+ * sur des grilles nues (aucune classe AWT ou Swing n'est chargée) et
+ * rassemble les taux de victoire et le nombre moyen de tirs.
+ * <p>Les parties sont réparties sur tous les coeurs par un pool fork-join.
+ * Chaque tâche joue ses parties avec ses propres grilles, son propre
+ * générateur de flotte et son propre compteur : rien n'est partagé en
+ * écriture entre les threads, les résultats sont additionnés à la fin.
+ * <p>La partie numéro i est entièrement tirée d'un générateur de graine
+ * graineDePartie(graine, i) : placement des deux flottes et choix des deux
+ * ordinateurs. Les résultats ne dépendent donc que de la graine maîtresse,
+ * quel que soit le nombre de coeurs (sauf pour le niveau 4, limité en
+ * temps).
+ * <p>Une partie de la simulation peut être journalisée (setJournal) pendant
+ * que les autres se jouent normalement, pour rejouer ensuite hors
+ * simulation un coup suspect (voir journalTirs).
+ */
+public class simulateur {
+
+    /** Nombre de parties en dessous duquel une tâche n'est plus découpée. */
+    private static final int SEUIL = 256;
+
+    private final regles regle;
+
+    private final int niveau1;
+
+    private final int niveau2;
+
+    private long graine = new SplittableRandom().nextLong();
+
+    /** Nom de base du journal de la partie partieJournal, ou null. */
+    private File baseJournal;
+
+    private long partieJournal = -1;
+
+    private int intervalleJournal = journalTirs.INTERVALLE_DEFAUT;
+
+    public simulateur(int largeur, int hauteur, int[] flotte,
+                      int niveau1, int niveau2) {
+        this(new regles(largeur, hauteur, flotte), niveau1, niveau2);
+    }
+
+    public simulateur(regles regle, int niveau1, int niveau2) {
+        this.regle = regle;
+        this.niveau1 = niveau1;
+        this.niveau2 = niveau2;
+    }
+
+    public regles getRegles() {
+        return regle;
+    }
+
+    public long getGraine() {
+        return graine;
+    }
+
+    /**
+     * Fixe la graine maîtresse dont sont dérivées celles des parties.
+     */
+    public void setGraine(long graine) {
+        this.graine = graine;
+    }
+
+    /**
+     * Journalise la partie numéro i des lancers suivants dans base.tirs et
+     * base.cles, en remplaçant le journal précédent.
+     * @param base nom de base du journal, null pour ne plus journaliser
+     * @param intervalle nombre de tours entre deux images clés
+     */
+    public void setJournal(File base, long i, int intervalle) {
+        baseJournal = base;
+        partieJournal = (base == null) ? -1 : i;
+        intervalleJournal = intervalle;
+    }
+
+    /**
+     * Graine de la partie numéro i : les valeurs maitre + (i + 1) * gamma
+     * passées dans la fonction de mélange de SplittableRandom, deux à deux
+     * distinctes et sans corrélation apparente.
+     */
+    public static long graineDePartie(long maitre, long i) {
+        long z = maitre + (i + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Statistiques cumulées d'un ensemble de parties.
+     */
+    public static class resultat {
+        long parties;
+        long victoires1;
+        long victoires2;
+        /** Tirs joués par le vainqueur, sommés sur toutes les parties. */
+        long tirsVainqueur;
+        long tirs1;
+        long tirs2;
+
+        void ajouter(resultat r) {
+            parties += r.parties;
+            victoires1 += r.victoires1;
+            victoires2 += r.victoires2;
+            tirsVainqueur += r.tirsVainqueur;
+            tirs1 += r.tirs1;
+            tirs2 += r.tirs2;
+        }
+
+        public long getParties() {
+            return parties;
+        }
+
+        public double tauxVictoire1() {
+            return parties == 0 ? 0 : (double) victoires1 / parties;
+        }
+
+        public double tauxVictoire2() {
+            return parties == 0 ? 0 : (double) victoires2 / parties;
+        }
+
+        /** Nombre moyen de tirs nécessaires au vainqueur pour couler la flotte adverse. */
+        public double tirsMoyensVainqueur() {
+            return parties == 0 ? 0 : (double) tirsVainqueur / parties;
+        }
+
+        public double tirsMoyens1() {
+            return parties == 0 ? 0 : (double) tirs1 / parties;
+        }
+
+        public double tirsMoyens2() {
+            return parties == 0 ? 0 : (double) tirs2 / parties;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "parties : %d%njoueur 1 : %.2f %% de victoires, %.2f tirs"
+                    + "%njoueur 2 : %.2f %% de victoires, %.2f tirs"
+                    + "%ntirs moyens du vainqueur : %.2f%n",
+                    parties, 100 * tauxVictoire1(), tirsMoyens1(),
+                    100 * tauxVictoire2(), tirsMoyens2(),
+                    tirsMoyensVainqueur());
+        }
+    }
+
+    /**
+     * Joue nombre parties sur le pool commun.
+     */
+    public resultat lancer(long nombre) {
+        return lancer(nombre, ForkJoinPool.commonPool());
+    }
+
+    public resultat lancer(long nombre, ForkJoinPool pool) {
+        return pool.invoke(new lot(0, nombre));
+    }
+
+    /**
+     * Prépare la partie numéro i de la simulation, flottes placées ; la
+     * jouer jusqu'au bout (par nouveauTour) redonne exactement la partie
+     * comptée par lancer, par exemple pour la journaliser.
+     * @throws IllegalStateException si la flotte n'a pas pu être placée
+     */
+    public jeu nouvellePartie(long i) {
+        return nouvellePartie(regle.nouveauPlacement(),
+                              new int[3 * regle.getFlotte().length], i);
+    }
+
+    private jeu nouvellePartie(placementFlotte generateur, int[] disposition,
+                               long i) {
+        long g = graineDePartie(graine, i);
+        SplittableRandom rand = new SplittableRandom(g);
+        grille g1 = regle.nouvelleGrille();
+        grille g2 = regle.nouvelleGrille();
+        if (!generateur.placer(g1, rand, disposition)
+                || !generateur.placer(g2, rand, disposition)) {
+            throw new IllegalStateException("flotte impossible à placer : " + regle);
+        }
+        jeu partie = new jeu(new ordinateur(niveau1, g1, rand.split()),
+                             new ordinateur(niveau2, g2, rand.split()));
+        partie.setGraine(g);
+        return partie;
+    }
+
+    /**
+     * Joue entièrement la partie numéro i sur des grilles neuves.
+     */
+    void jouerPartie(placementFlotte generateur, int[] disposition, long i,
+                     resultat r) {
+        jeu partie = nouvellePartie(generateur, disposition, i);
+        if (i == partieJournal) {
+            jouerJournalise(partie);
+        } else {
+            while (partie.enCours()) {
+                partie.nouveauTour();
+            }
+        }
+        grille g1 = partie.getJoueur1().getGrille();
+        grille g2 = partie.getJoueur2().getGrille();
+        r.parties++;
+        r.tirs1 += g2.getTirs();
+        r.tirs2 += g1.getTirs();
+        if (partie.getVainqueur() == partie.getJoueur1()) {
+            r.victoires1++;
+            r.tirsVainqueur += g2.getTirs();
+        } else {
+            r.victoires2++;
+            r.tirsVainqueur += g1.getTirs();
+        }
+    }
+
+    private void jouerJournalise(jeu partie) {
+        try {
+            journalTirs journal = new journalTirs(baseJournal, intervalleJournal);
+            try {
+                partie.setJournal(journal);
+                while (partie.enCours()) {
+                    partie.nouveauTour();
+                }
+            } finally {
+                partie.setJournal(null);
+                journal.close();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Tâche qui joue les parties [debut, fin) ou se découpe en deux.
+     */
+    private class lot extends RecursiveTask<resultat> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long debut;
+
+        private final long fin;
+
+        lot(long debut, long fin) {
+            this.debut = debut;
+            this.fin = fin;
+        }
+
+        @Override
+        protected resultat compute() {
+            if (fin - debut <= SEUIL) {
+                resultat r = new resultat();
+                placementFlotte generateur = regle.nouveauPlacement();
+                int[] disposition = new int[3 * generateur.nombreBateaux()];
+                for (long i = debut; i < fin; i++) {
+                    jouerPartie(generateur, disposition, i, r);
+                }
+                return r;
+            }
+            long milieu = (debut + fin) >>> 1;
+            lot gauche = new lot(debut, milieu);
+            gauche.fork();
+            resultat r = new lot(milieu, fin).compute();
+            r.ajouter(gauche.join());
+            return r;
+        }
+    }
+
+    /**
+     * Usage : simulateur [-j base [-p partie] [-i intervalle]]
+     * parties [niveau1 [niveau2 [largeur [hauteur [graine [flotte]]]]]]
+     * où flotte donne les longueurs des bateaux, par exemple 5,4,3,3,2.
+     * Chaque argument absent prend sa valeur par défaut : niveau 1, grille
+     * de 10 de large, aussi haute que large. Avec -j, la partie numéro
+     * partie (0 par défaut) est journalisée sous le nom de base donné.
+     */
+    public static void main(String[] args) {
+        File journal = null;
+        long partieJournal = 0;
+        int intervalle = journalTirs.INTERVALLE_DEFAUT;
+        List<String> positions = new ArrayList<String>();
+        for (int k = 0; k < args.length; k++) {
+            if (args[k].equals("-j") && k + 1 < args.length) {
+                journal = new File(args[++k]);
+            } else if (args[k].equals("-p") && k + 1 < args.length) {
+                partieJournal = Long.parseLong(args[++k]);
+            } else if (args[k].equals("-i") && k + 1 < args.length) {
+                intervalle = Integer.parseInt(args[++k]);
+            } else {
+                positions.add(args[k]);
+            }
+        }
+        args = positions.toArray(new String[positions.size()]);
+        long parties = args.length > 0 ? Long.parseLong(args[0]) : 100000;
+        int niveau1 = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int niveau2 = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int largeur = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int hauteur = args.length > 4 ? Integer.parseInt(args[4]) : largeur;
+
+        regles regle = regles.lire(largeur + "x" + hauteur
+                + (args.length > 6 ? ":" + args[6] : ""));
+        simulateur sim = new simulateur(regle, niveau1, niveau2);
+        if (args.length > 5) sim.setGraine(Long.parseLong(args[5]));
+        if (journal != null) sim.setJournal(journal, partieJournal, intervalle);
+        long t0 = System.nanoTime();
+        resultat r = sim.lancer(parties);
+        double secondes = (System.nanoTime() - t0) / 1e9;
+        System.out.println("graine : " + sim.getGraine());
+        System.out.print(r);
+        System.out.printf("%.2f s, %.0f parties/s sur %d threads%n", secondes,
+                r.getParties() / secondes,
+                ForkJoinPool.commonPool().getParallelism());
+        if (journal != null && partieJournal < parties) {
+            System.out.println("partie " + partieJournal + " journalisée dans "
+                    + journalTirs.fichierTirs(journal) + " et "
+                    + journalTirs.fichierCles(journal));
+        }
+    }
+}
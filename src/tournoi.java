@@ -0,0 +1,434 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tournoi toutes rondes entre stratégies (niveaux d'ordinateur ou
+ * stratégies personnalisées), sans interface.
+ * <p>Les dispositions de flotte sont tirées depuis la graine, lot par lot
+ * quand la première rencontre arrive à ce lot, et partagées par toutes
+ * les rencontres : la donne k donne deux
+ * dispositions, jouées deux fois en échangeant flottes et premier tir. Les
+ * deux stratégies jouent ainsi exactement les mêmes parties, ce qui
+ * réduit beaucoup la variance de leur écart (comparaison appariée).
+ * <p>Toutes les rencontres sont jouées en même temps sur un pool
+ * fork-join, par lots de donnes eux-mêmes découpés entre les coeurs.
+ * Après chaque lot, une rencontre s'arrête dès que l'intervalle de
+ * confiance à 95 % du taux de victoire a une demi-largeur inférieure à la
+ * marge demandée. Les lots étant fixés d'avance, les résultats ne
+ * dépendent que de la graine (sauf pour le niveau 4, limité en temps).
+ */
+public class tournoi {
+
+    /** Fabrique les joueurs d'un concurrent. */
+    public interface strategie {
+        /**
+         * @param flotte grille du joueur, bateaux posés
+         * @param hasard générateur propre à ce joueur
+         */
+        joueur creer(grille flotte, SplittableRandom hasard);
+    }
+
+    /** Quantile à 97,5 % de la loi normale, pour un intervalle à 95 %. */
+    private static final double Z = 1.96;
+
+    /** Donnes jouées par une rencontre entre deux vérifications de l'arrêt. */
+    private static final int LOT = 128;
+
+    /** Donnes en dessous desquelles un lot n'est plus découpé. */
+    private static final int SEUIL = 16;
+
+    private final regles regle;
+
+    private final List<String> noms = new ArrayList<String>();
+
+    private final List<strategie> strategies = new ArrayList<strategie>();
+
+    private long graine = new SplittableRandom().nextLong();
+
+    private double marge = 0.02;
+
+    private int donnesMin = 2 * LOT;
+
+    private int donnesMax = 20000;
+
+    /**
+     * Dispositions partagées, par lot de LOT donnes, nulles tant qu'aucune
+     * rencontre n'est arrivée au lot : dans un lot, donne k, flotte f (0
+     * ou 1), triplets (x, y, horizontal).
+     */
+    private AtomicReferenceArray<int[]> dispositions;
+
+    private int nbBateaux;
+
+    public tournoi(regles regle) {
+        this.regle = regle;
+    }
+
+    /**
+     * @return la stratégie des ordinateurs du niveau donné.
+     */
+    public static strategie niveau(final int niveau) {
+        return new strategie() {
+            @Override
+            public joueur creer(grille flotte, SplittableRandom hasard) {
+                return new ordinateur(niveau, flotte, hasard);
+            }
+        };
+    }
+
+    public void inscrire(String nom, strategie s) {
+        noms.add(nom);
+        strategies.add(s);
+    }
+
+    public long getGraine() {
+        return graine;
+    }
+
+    public void setGraine(long graine) {
+        this.graine = graine;
+    }
+
+    /**
+     * @param marge demi-largeur visée de l'intervalle de confiance du taux
+     *        de victoire, par exemple 0.02 pour ± 2 points
+     */
+    public void setMarge(double marge) {
+        this.marge = marge;
+    }
+
+    /**
+     * Bornes du nombre de donnes (deux parties chacune) d'une rencontre.
+     */
+    public void setDonnes(int min, int max) {
+        donnesMin = min;
+        donnesMax = max;
+    }
+
+    /**
+     * Bilan d'une rencontre, du point de vue de la stratégie a. Une donne
+     * rapporte 1 si a gagne ses deux parties, 0,5 pour une partie chacun,
+     * 0 sinon : l'intervalle de confiance est calculé sur ces scores.
+     */
+    public static final class rencontre {
+        private final int a;
+        private final int b;
+        private final String nomA;
+        private final String nomB;
+        long donnes;
+        long victoiresA;
+        /** Somme des scores des donnes, en demi-points, et de leurs carrés. */
+        long demiPoints;
+        long demiPointsCarres;
+        long tirsA;
+        long tirsB;
+
+        rencontre(int a, int b, String nomA, String nomB) {
+            this.a = a;
+            this.b = b;
+            this.nomA = nomA;
+            this.nomB = nomB;
+        }
+
+        void ajouter(rencontre r) {
+            donnes += r.donnes;
+            victoiresA += r.victoiresA;
+            demiPoints += r.demiPoints;
+            demiPointsCarres += r.demiPointsCarres;
+            tirsA += r.tirsA;
+            tirsB += r.tirsB;
+        }
+
+        public String getNomA() {
+            return nomA;
+        }
+
+        public String getNomB() {
+            return nomB;
+        }
+
+        public long getParties() {
+            return 2 * donnes;
+        }
+
+        /** Taux de victoire de a. */
+        public double tauxA() {
+            return donnes == 0 ? 0 : victoiresA / (2.0 * donnes);
+        }
+
+        /** Demi-largeur de l'intervalle de confiance à 95 % de tauxA. */
+        public double demiLargeur() {
+            if (donnes < 2) return 1;
+            double moyenne = demiPoints / (2.0 * donnes);
+            double variance = (demiPointsCarres / 4.0 - donnes * moyenne * moyenne)
+                            / (donnes - 1);
+            return Z * Math.sqrt(Math.max(0, variance) / donnes);
+        }
+
+        /** Nombre moyen de tirs joués par a dans une partie. */
+        public double tirsMoyensA() {
+            return donnes == 0 ? 0 : tirsA / (2.0 * donnes);
+        }
+
+        public double tirsMoyensB() {
+            return donnes == 0 ? 0 : tirsB / (2.0 * donnes);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %-12s %8d %7.2f %% ± %5.2f %8.2f %8.2f",
+                    nomA, nomB, getParties(), 100 * tauxA(), 100 * demiLargeur(),
+                    tirsMoyensA(), tirsMoyensB());
+        }
+    }
+
+    /**
+     * Joue toutes les rencontres sur le pool commun.
+     * @return les rencontres, dans l'ordre des paires (0,1), (0,2)... (1,2)...
+     */
+    public List<rencontre> lancer() {
+        return lancer(ForkJoinPool.commonPool());
+    }
+
+    public List<rencontre> lancer(ForkJoinPool pool) {
+        nbBateaux = regle.getFlotte().length;
+        dispositions = new AtomicReferenceArray<int[]>((donnesMax + LOT - 1) / LOT);
+        final List<duel> duels = new ArrayList<duel>();
+        for (int a = 0; a < strategies.size(); a++) {
+            for (int b = a + 1; b < strategies.size(); b++) {
+                duels.add(new duel(new rencontre(a, b, noms.get(a), noms.get(b))));
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(duels);
+            }
+        });
+        List<rencontre> resultats = new ArrayList<rencontre>();
+        for (duel d : duels) resultats.add(d.bilan);
+        return resultats;
+    }
+
+    /**
+     * Tire au premier appel les dispositions du lot n, chaque donne depuis
+     * sa propre graine, en parallèle. Deux rencontres arrivées ensemble au
+     * lot le tirent chacune, à l'identique, et gardent le même tableau.
+     * Appelé depuis une tâche du pool.
+     */
+    private int[] preparerLot(int n) {
+        int[] lot = dispositions.get(n);
+        if (lot != null) return lot;
+        int debut = n * LOT;
+        int fin = Math.min(donnesMax, debut + LOT);
+        lot = new int[(fin - debut) * 2 * 3 * nbBateaux];
+        new tirage(lot, debut, debut, fin).invoke();
+        if (!dispositions.compareAndSet(n, null, lot)) lot = dispositions.get(n);
+        return lot;
+    }
+
+    private class tirage extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] lot;
+
+        /** Première donne du lot. */
+        private final int origine;
+
+        private final int debut;
+
+        private final int fin;
+
+        tirage(int[] lot, int origine, int debut, int fin) {
+            this.lot = lot;
+            this.origine = origine;
+            this.debut = debut;
+            this.fin = fin;
+        }
+
+        @Override
+        protected void compute() {
+            if (fin - debut <= 4 * SEUIL) {
+                placementFlotte generateur = regle.nouveauPlacement();
+                int[] disposition = new int[3 * nbBateaux];
+                for (int k = debut; k < fin; k++) {
+                    SplittableRandom rand = new SplittableRandom(
+                            simulateur.graineDePartie(graine, k));
+                    for (int f = 0; f < 2; f++) {
+                        if (!generateur.generer(rand, disposition)) {
+                            throw new IllegalStateException("flotte impossible à placer : " + regle);
+                        }
+                        System.arraycopy(disposition, 0, lot,
+                                (2 * (k - origine) + f) * 3 * nbBateaux, 3 * nbBateaux);
+                    }
+                }
+                return;
+            }
+            int milieu = (debut + fin) >>> 1;
+            invokeAll(new tirage(lot, origine, debut, milieu),
+                      new tirage(lot, origine, milieu, fin));
+        }
+    }
+
+    /** Grille neuve portant la flotte f de la donne k, dont le lot est tiré. */
+    private grille poser(int k, int f, int[] tailles) {
+        grille g = regle.nouvelleGrille();
+        int[] lot = dispositions.get(k / LOT);
+        int base = (2 * (k % LOT) + f) * 3 * nbBateaux;
+        for (int b = 0; b < nbBateaux; b++) {
+            g.placer(lot[base + 3 * b], lot[base + 3 * b + 1],
+                     tailles[b], lot[base + 3 * b + 2] != 0);
+        }
+        return g;
+    }
+
+    /**
+     * Une rencontre : lots de donnes jusqu'à l'intervalle assez étroit ou
+     * toutes les donnes jouées.
+     */
+    private class duel extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final rencontre bilan;
+
+        duel(rencontre bilan) {
+            this.bilan = bilan;
+        }
+
+        @Override
+        protected void compute() {
+            int k = 0;
+            while (k < donnesMax) {
+                int fin = Math.min(donnesMax, k + LOT);
+                preparerLot(k / LOT);
+                bilan.ajouter(new donnes(bilan, k, fin).compute());
+                k = fin;
+                if (k >= donnesMin && bilan.demiLargeur() <= marge) break;
+            }
+        }
+    }
+
+    /** Tâche qui joue les donnes [debut, fin) d'une rencontre ou se découpe en deux. */
+    private class donnes extends RecursiveTask<rencontre> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final rencontre modele;
+
+        private final int debut;
+
+        private final int fin;
+
+        donnes(rencontre modele, int debut, int fin) {
+            this.modele = modele;
+            this.debut = debut;
+            this.fin = fin;
+        }
+
+        @Override
+        protected rencontre compute() {
+            if (fin - debut <= SEUIL) {
+                rencontre r = new rencontre(modele.a, modele.b, modele.nomA, modele.nomB);
+                int[] tailles = regle.getFlotte();
+                for (int k = debut; k < fin; k++) {
+                    jouerDonne(r, k, tailles);
+                }
+                return r;
+            }
+            int milieu = (debut + fin) >>> 1;
+            donnes gauche = new donnes(modele, debut, milieu);
+            gauche.fork();
+            rencontre r = new donnes(modele, milieu, fin).compute();
+            r.ajouter(gauche.join());
+            return r;
+        }
+    }
+
+    /**
+     * Donne k : a tire le premier avec la flotte 0 contre b et la flotte 1,
+     * puis b tire le premier avec la flotte 0 contre a et la flotte 1.
+     */
+    private void jouerDonne(rencontre r, int k, int[] tailles) {
+        strategie sa = strategies.get(r.a);
+        strategie sb = strategies.get(r.b);
+        SplittableRandom rand = new SplittableRandom(
+                simulateur.graineDePartie(~graine, k));
+        int points = 0;
+        for (int manche = 0; manche < 2; manche++) {
+            joueur premier = (manche == 0 ? sa : sb).creer(poser(k, 0, tailles), rand.split());
+            joueur second = (manche == 0 ? sb : sa).creer(poser(k, 1, tailles), rand.split());
+            jeu partie = new jeu(premier, second);
+            while (partie.enCours()) {
+                int tours = partie.getTours();
+                partie.nouveauTour();
+                if (partie.getTours() == tours) {
+                    throw new IllegalStateException("une stratégie ne joue pas seule");
+                }
+            }
+            joueur a = (manche == 0) ? premier : second;
+            joueur b = (manche == 0) ? second : premier;
+            r.tirsA += b.getGrille().getTirs();
+            r.tirsB += a.getGrille().getTirs();
+            if (partie.getVainqueur() == a) points++;
+        }
+        r.donnes++;
+        r.victoiresA += points;
+        r.demiPoints += points;
+        r.demiPointsCarres += points * points;
+    }
+
+    /**
+     * Usage : tournoi [niveaux [marge [donnes_max [graine [regles]]]]],
+     * par exemple <code>tournoi 1,2,3 0.01</code>.
+     */
+    public static void main(String[] args) {
+        String[] niveaux = (args.length > 0 ? args[0] : "1,2,3").split(",");
+        regles regle = args.length > 4 ? regles.lire(args[4]) : regles.STANDARD;
+        tournoi t = new tournoi(regle);
+        for (String n : niveaux) {
+            t.inscrire("niveau" + n.trim(), niveau(Integer.parseInt(n.trim())));
+        }
+        if (args.length > 1) t.setMarge(Double.parseDouble(args[1]));
+        if (args.length > 2) t.setDonnes(Math.min(t.donnesMin, Integer.parseInt(args[2])),
+                                         Integer.parseInt(args[2]));
+        if (args.length > 3) t.setGraine(Long.parseLong(args[3]));
+        long t0 = System.nanoTime();
+        List<rencontre> rencontres = t.lancer();
+        double secondes = (System.nanoTime() - t0) / 1e9;
+        System.out.println("graine : " + t.getGraine() + ", règles : " + regle);
+        System.out.printf("%-12s %-12s %8s %21s %8s %8s%n", "A", "B", "parties",
+                "victoires de A", "tirs A", "tirs B");
+        double[] points = new double[niveaux.length];
+        for (rencontre r : rencontres) {
+            System.out.println(r);
+            points[r.a] += r.tauxA();
+            points[r.b] += 1 - r.tauxA();
+        }
+        System.out.println("classement (victoires cumulées) :");
+        Integer[] ordre = new Integer[niveaux.length];
+        for (int i = 0; i < ordre.length; i++) ordre[i] = i;
+        final double[] p = points;
+        java.util.Arrays.sort(ordre, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer x, Integer y) {
+                return Double.compare(p[y], p[x]);
+            }
+        });
+        for (int i : ordre) {
+            System.out.printf("  %-12s %6.3f%n", t.noms.get(i), points[i]);
+        }
+        System.out.printf("%.2f s sur %d threads%n", secondes,
+                ForkJoinPool.commonPool().getParallelism());
+    }
+}